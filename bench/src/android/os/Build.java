@@ -0,0 +1,21 @@
+package android.os;
+
+/**
+ * JVM stand-in that reports Jelly Bean, so that the task layer takes its
+ * {@link android.view.Choreographer} paths.
+ */
+public class Build {
+
+  public static class VERSION {
+    public static final int SDK_INT = VERSION_CODES.JELLY_BEAN;
+  }
+
+  public static class VERSION_CODES {
+    public static final int FROYO = 8;
+    public static final int GINGERBREAD = 9;
+    public static final int HONEYCOMB = 11;
+    public static final int ICE_CREAM_SANDWICH = 14;
+    public static final int JELLY_BEAN = 16;
+  }
+
+}
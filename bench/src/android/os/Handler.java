@@ -0,0 +1,79 @@
+package android.os;
+
+/**
+ * JVM stand-in for the framework's Handler: posts {@link Message}s and
+ * {@link Runnable}s to a {@link Looper}, and dispatches them on its thread.
+ */
+public class Handler {
+  private final Looper mLooper;
+
+  public Handler() {
+    this(Looper.myLooper());
+  }
+
+  public Handler(Looper looper) {
+    if (looper == null) {
+      throw new RuntimeException(
+          "Can't create handler inside thread that has not called Looper.prepare()");
+    }
+    mLooper = looper;
+  }
+
+  /**
+   * Subclasses override this to receive messages.
+   */
+  public void handleMessage(Message msg) {
+  }
+
+  public void dispatchMessage(Message msg) {
+    if (msg.callback != null) {
+      msg.callback.run();
+    } else {
+      handleMessage(msg);
+    }
+  }
+
+  public final Looper getLooper() {
+    return mLooper;
+  }
+
+  public final Message obtainMessage(int what, Object obj) {
+    Message message = Message.obtain();
+    message.target = this;
+    message.what = what;
+    message.obj = obj;
+    return message;
+  }
+
+  public final boolean post(Runnable r) {
+    return postDelayed(r, 0);
+  }
+
+  public final boolean postDelayed(Runnable r, long delayMillis) {
+    Message message = Message.obtain();
+    message.callback = r;
+    return sendMessageDelayed(message, delayMillis);
+  }
+
+  public final boolean sendMessage(Message msg) {
+    return sendMessageDelayed(msg, 0);
+  }
+
+  public final boolean sendMessageDelayed(Message msg, long delayMillis) {
+    return sendMessageAtTime(msg, SystemClock.uptimeMillis() + Math.max(0, delayMillis));
+  }
+
+  public boolean sendMessageAtTime(Message msg, long uptimeMillis) {
+    msg.target = this;
+    return mLooper.enqueue(msg, uptimeMillis);
+  }
+
+  public final void removeCallbacks(Runnable r) {
+    mLooper.removeCallbacks(this, r);
+  }
+
+  public final void removeMessages(int what) {
+    mLooper.removeMessages(this, what);
+  }
+
+}
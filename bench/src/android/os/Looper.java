@@ -0,0 +1,148 @@
+package android.os;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.PriorityQueue;
+
+/**
+ * JVM stand-in for the framework's Looper, with just enough of it to run the
+ * task layer off the device: each prepared thread owns one queue of
+ * {@link Message}s, ordered by due time and then by the order they were sent,
+ * which {@link #loop()} dispatches until {@link #quit()} is called.
+ */
+public final class Looper {
+
+  private static final Comparator<Message> ORDER = new Comparator<Message>() {
+    @Override
+    public int compare(Message lhs, Message rhs) {
+      if (lhs.when != rhs.when) {
+        return lhs.when < rhs.when ? -1 : 1;
+      }
+      return lhs.sequence < rhs.sequence ? -1 : (lhs.sequence == rhs.sequence ? 0 : 1);
+    }
+  };
+
+  private static final ThreadLocal<Looper> sThreadLocal = new ThreadLocal<Looper>();
+  private static Looper sMainLooper; // guarded by Looper.class
+
+  private final Thread mThread = Thread.currentThread();
+  // All guarded by this.
+  private final PriorityQueue<Message> mQueue = new PriorityQueue<Message>(64, ORDER);
+  private long mSequence;
+  private boolean mQuitting;
+
+  private Looper() {}
+
+  public static void prepare() {
+    if (sThreadLocal.get() != null) {
+      throw new RuntimeException("Only one Looper may be created per thread");
+    }
+    sThreadLocal.set(new Looper());
+  }
+
+  /**
+   * Make the calling thread the main thread. Must be called before any of
+   * the task layer's classes are loaded, since they bind their handlers to
+   * the main looper when they are initialized.
+   */
+  public static void prepareMainLooper() {
+    prepare();
+    synchronized (Looper.class) {
+      if (sMainLooper != null) {
+        throw new IllegalStateException("The main Looper has already been prepared.");
+      }
+      sMainLooper = myLooper();
+    }
+  }
+
+  public static synchronized Looper getMainLooper() {
+    return sMainLooper;
+  }
+
+  public static Looper myLooper() {
+    return sThreadLocal.get();
+  }
+
+  public Thread getThread() {
+    return mThread;
+  }
+
+  /**
+   * Dispatch messages on the calling thread until {@link #quit()}.
+   */
+  public static void loop() {
+    Looper me = myLooper();
+    if (me == null) {
+      throw new RuntimeException("No Looper; Looper.prepare() wasn't called on this thread.");
+    }
+    Message message;
+    while ((message = me.next()) != null) {
+      message.target.dispatchMessage(message);
+      message.recycle();
+    }
+  }
+
+  /**
+   * Make {@link #loop()} return, dropping any messages still queued.
+   */
+  public synchronized void quit() {
+    mQuitting = true;
+    notifyAll();
+  }
+
+  synchronized boolean enqueue(Message message, long when) {
+    if (mQuitting) {
+      message.recycle();
+      return false;
+    }
+    message.when = when;
+    message.sequence = mSequence++;
+    mQueue.add(message);
+    notifyAll();
+    return true;
+  }
+
+  synchronized void removeCallbacks(Handler target, Runnable callback) {
+    for (Iterator<Message> it = mQueue.iterator(); it.hasNext();) {
+      Message message = it.next();
+      if (message.target == target && message.callback == callback) {
+        it.remove();
+        message.recycle();
+      }
+    }
+  }
+
+  synchronized void removeMessages(Handler target, int what) {
+    for (Iterator<Message> it = mQueue.iterator(); it.hasNext();) {
+      Message message = it.next();
+      if (message.target == target && message.callback == null && message.what == what) {
+        it.remove();
+        message.recycle();
+      }
+    }
+  }
+
+  /**
+   * Waits for the next due message, or returns null once quitting.
+   */
+  private synchronized Message next() {
+    while (!mQuitting) {
+      Message message = mQueue.peek();
+      long now = SystemClock.uptimeMillis();
+      if (message != null && message.when <= now) {
+        return mQueue.poll();
+      }
+      try {
+        if (message == null) {
+          wait();
+        } else {
+          wait(message.when - now);
+        }
+      } catch (InterruptedException e) {
+        // Like the framework's, the loop only stops when asked to quit.
+      }
+    }
+    return null;
+  }
+
+}
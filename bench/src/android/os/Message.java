@@ -0,0 +1,56 @@
+package android.os;
+
+/**
+ * JVM stand-in for the framework's Message. Like the real one, messages are
+ * recycled into a small pool once dispatched, so that posting to a
+ * {@link Handler} allocates nothing in steady state.
+ */
+public final class Message {
+  private static final int MAX_POOL_SIZE = 50;
+  private static final Object sPoolLock = new Object();
+  private static Message sPool; // guarded by sPoolLock
+  private static int sPoolSize; // guarded by sPoolLock
+
+  public int what;
+  public Object obj;
+
+  Handler target;
+  Runnable callback;
+  long when;
+  long sequence;
+  private Message mNext; // guarded by sPoolLock
+
+  public static Message obtain() {
+    synchronized (sPoolLock) {
+      if (sPool != null) {
+        Message message = sPool;
+        sPool = message.mNext;
+        message.mNext = null;
+        sPoolSize--;
+        return message;
+      }
+    }
+    return new Message();
+  }
+
+  public void sendToTarget() {
+    target.sendMessage(this);
+  }
+
+  void recycle() {
+    what = 0;
+    obj = null;
+    target = null;
+    callback = null;
+    when = 0;
+    sequence = 0;
+    synchronized (sPoolLock) {
+      if (sPoolSize < MAX_POOL_SIZE) {
+        mNext = sPool;
+        sPool = this;
+        sPoolSize++;
+      }
+    }
+  }
+
+}
@@ -0,0 +1,37 @@
+package android.os;
+
+/**
+ * JVM stand-in backed by {@link System#nanoTime()}.
+ */
+public final class SystemClock {
+
+  private SystemClock() {}
+
+  public static long uptimeMillis() {
+    return System.nanoTime() / 1000000;
+  }
+
+  public static long elapsedRealtime() {
+    return uptimeMillis();
+  }
+
+  /**
+   * Like the framework's, ignores interrupts (but keeps them for the caller).
+   */
+  public static void sleep(long ms) {
+    long end = uptimeMillis() + ms;
+    boolean interrupted = false;
+    long left;
+    while ((left = end - uptimeMillis()) > 0) {
+      try {
+        Thread.sleep(left);
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package android.view;
+
+import java.util.ArrayList;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * JVM stand-in for the framework's Choreographer: frame callbacks run on the
+ * looper thread that posted them, on a simulated 60Hz vsync. Like the real
+ * one, posting and running callbacks allocates nothing in steady state.
+ */
+public final class Choreographer {
+  private static final long FRAME_NANOS = 1000000000L / 60;
+
+  private static final ThreadLocal<Choreographer> sThreadInstance =
+      new ThreadLocal<Choreographer>() {
+        @Override
+        protected Choreographer initialValue() {
+          Looper looper = Looper.myLooper();
+          if (looper == null) {
+            throw new IllegalStateException("The current thread must have a looper!");
+          }
+          return new Choreographer(looper);
+        }
+      };
+
+  public interface FrameCallback {
+    void doFrame(long frameTimeNanos);
+  }
+
+  private final Handler mHandler;
+  private ArrayList<FrameCallback> mCallbacks = new ArrayList<FrameCallback>();
+  private ArrayList<FrameCallback> mRunning = new ArrayList<FrameCallback>();
+  private boolean mFrameScheduled;
+
+  private final Runnable mFrame = new Runnable() {
+    @Override
+    public void run() {
+      doFrame();
+    }
+  };
+
+  private Choreographer(Looper looper) {
+    mHandler = new Handler(looper);
+  }
+
+  public static Choreographer getInstance() {
+    return sThreadInstance.get();
+  }
+
+  public void postFrameCallback(FrameCallback callback) {
+    mCallbacks.add(callback);
+    if (!mFrameScheduled) {
+      mFrameScheduled = true;
+      long now = System.nanoTime();
+      long vsync = (now / FRAME_NANOS + 1) * FRAME_NANOS;
+      mHandler.postDelayed(mFrame, (vsync - now) / 1000000);
+    }
+  }
+
+  public void removeFrameCallback(FrameCallback callback) {
+    while (mCallbacks.remove(callback)) {
+      // Remove every occurrence, like the framework does.
+    }
+  }
+
+  private void doFrame() {
+    mFrameScheduled = false;
+    long frameTimeNanos = System.nanoTime();
+    // Callbacks posted from inside this frame run on the next one.
+    ArrayList<FrameCallback> running = mCallbacks;
+    mCallbacks = mRunning;
+    mRunning = running;
+    for (int i = 0; i < running.size(); i++) {
+      running.get(i).doFrame(frameTimeNanos);
+    }
+    running.clear();
+  }
+
+}
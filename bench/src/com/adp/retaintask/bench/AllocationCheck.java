@@ -0,0 +1,168 @@
+package com.adp.retaintask.bench;
+
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.adp.retaintask.task.BackgroundTask;
+
+/**
+ * AllocationCheck verifies that progress costs no allocations in steady state,
+ * on either side: neither {@link BackgroundTask#publishProgress} on the
+ * worker, nor delivery to {@link BackgroundTask.Listener#onProgressUpdate} on
+ * the main thread (frame scheduling and the main looper included). Each side
+ * is measured after a warm-up, with the allocation counters of its own thread.
+ * The JIT can still allocate now and then while it settles, so each side gets
+ * up to {@link #WINDOWS} measurement windows, and passes if any of them was
+ * free of allocations. Exits with status 1 if either side never was.
+ * <p>
+ * Usage: <code>AllocationCheck [publishes] [deliveries]</code>
+ */
+public final class AllocationCheck {
+  private static final int WARMUP_DELIVERIES = 250;
+  private static final int WINDOWS = 3;
+
+  private final int mPublishes;
+  private final int mDeliveries;
+  private volatile boolean mStopPublishing;
+  private volatile long mPublishBytes = -1;
+
+  // Only accessed on the main thread.
+  private int mDelivered;
+  private int mDeliveryWindows;
+  private long mDeliveryBytesAtStart;
+  private long mDeliveryBytes = -1;
+
+  /**
+   * Publishes as fast as it can for the publish side, then a value every
+   * millisecond until enough have been delivered.
+   */
+  private final class PublishingTask extends BackgroundTask<Void> {
+
+    PublishingTask(Listener listener) {
+      super("publisher", listener);
+    }
+
+    @Override
+    protected Void doInBackground() {
+      // Warm up, then measure.
+      publish(mPublishes);
+      for (int i = 0; i < WINDOWS && mPublishBytes != 0; i++) {
+        long bytes = Allocations.ofCurrentThread();
+        publish(mPublishes);
+        mPublishBytes = Allocations.ofCurrentThread() - bytes;
+      }
+
+      int percent = 0;
+      while (!mStopPublishing && !isCancelled()) {
+        publishProgress(percent++ % 101);
+        try {
+          Thread.sleep(1);
+        } catch (InterruptedException e) {
+          break;
+        }
+      }
+      return null;
+    }
+
+    private void publish(int count) {
+      for (int i = 0; i < count; i++) {
+        publishProgress(i % 101);
+      }
+    }
+  }
+
+  private final BackgroundTask.Listener mListener = new BackgroundTask.Listener() {
+    @Override
+    public void onPreExecute(BackgroundTask<?> task) {
+    }
+
+    @Override
+    public void onProgressUpdate(BackgroundTask<?> task, int percent) {
+      if (++mDelivered == WARMUP_DELIVERIES) {
+        mDeliveryBytesAtStart = Allocations.ofCurrentThread();
+      } else if (mDelivered == WARMUP_DELIVERIES + mDeliveries) {
+        mDeliveryBytes = Allocations.ofCurrentThread() - mDeliveryBytesAtStart;
+        if (mDeliveryBytes == 0 || ++mDeliveryWindows == WINDOWS) {
+          mStopPublishing = true;
+        } else {
+          // Start another window.
+          mDelivered = WARMUP_DELIVERIES;
+          mDeliveryBytesAtStart = Allocations.ofCurrentThread();
+        }
+      }
+    }
+
+    @Override
+    public void onCancelled(BackgroundTask<?> task) {
+      Looper.myLooper().quit();
+    }
+
+    @Override
+    public void onTimedOut(BackgroundTask<?> task) {
+      Looper.myLooper().quit();
+    }
+
+    @Override
+    public void onFailed(BackgroundTask<?> task) {
+      Looper.myLooper().quit();
+    }
+
+    @Override
+    public void onPostExecute(BackgroundTask<?> task) {
+      Looper.myLooper().quit();
+    }
+  };
+
+  public AllocationCheck(int publishes, int deliveries) {
+    mPublishes = publishes;
+    mDeliveries = deliveries;
+  }
+
+  /**
+   * Start the check. Must be called on the main thread; the main looper quits
+   * once the task is done.
+   */
+  public void start() {
+    new PublishingTask(mListener).execute(new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        new Thread(command, "Publisher").start();
+      }
+    });
+  }
+
+  /**
+   * Prints the result, and returns true if neither side allocated.
+   */
+  public boolean report() {
+    System.out.println("publishProgress(): " + mPublishBytes + " bytes over " + mPublishes
+        + " calls");
+    System.out.println("onProgressUpdate() delivery: " + mDeliveryBytes + " bytes over "
+        + mDeliveries + " deliveries");
+    return mPublishBytes == 0 && mDeliveryBytes == 0;
+  }
+
+  public static void main(String[] args) {
+    int publishes = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int deliveries = args.length > 1 ? Integer.parseInt(args[1]) : 120;
+
+    // Before anything binds a handler to the main looper.
+    Looper.prepareMainLooper();
+    final AllocationCheck check = new AllocationCheck(publishes, deliveries);
+    new Handler(Looper.getMainLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        check.start();
+      }
+    });
+    Looper.loop();
+    if (!check.report()) {
+      System.out.println("FAILED: progress allocated in steady state");
+      System.exit(1);
+    }
+    System.out.println("OK: no allocations per update");
+  }
+
+}
@@ -0,0 +1,44 @@
+package com.adp.retaintask.bench;
+
+import java.lang.management.ManagementFactory;
+
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Reads how many bytes threads have allocated so far, through the HotSpot
+ * extension of {@link java.lang.management.ThreadMXBean}. Reading the counters
+ * doesn't allocate, except for the arrays of {@link #ofAllThreads()}.
+ */
+final class Allocations {
+  private static final ThreadMXBean sThreads =
+      (ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+  static {
+    sThreads.setThreadAllocatedMemoryEnabled(true);
+  }
+
+  private Allocations() {}
+
+  static long ofThread(Thread thread) {
+    return sThreads.getThreadAllocatedBytes(thread.getId());
+  }
+
+  static long ofCurrentThread() {
+    return ofThread(Thread.currentThread());
+  }
+
+  /**
+   * Returns the total allocated by the threads that are still alive; what
+   * dead threads allocated is lost.
+   */
+  static long ofAllThreads() {
+    long total = 0;
+    for (long bytes : sThreads.getThreadAllocatedBytes(sThreads.getAllThreadIds())) {
+      if (bytes > 0) {
+        total += bytes;
+      }
+    }
+    return total;
+  }
+
+}
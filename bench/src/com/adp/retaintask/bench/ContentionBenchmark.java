@@ -0,0 +1,155 @@
+package com.adp.retaintask.bench;
+
+import java.util.concurrent.CountDownLatch;
+
+import com.adp.retaintask.task.AggregateProgress;
+
+/**
+ * ContentionBenchmark measures {@link AggregateProgress#update} with 1 to 16
+ * writer threads updating their share of 256 weighted subtasks, against an
+ * aggregate that takes a lock on every update. Each run is a fresh aggregate
+ * taken from 0 to 100%; the benchmark reports total updates/s over the
+ * measured runs.
+ * <p>
+ * Usage: <code>ContentionBenchmark [updates per thread per run]</code>
+ */
+public final class ContentionBenchmark {
+  private static final int WARMUP_RUNS = 2;
+  private static final int MEASURED_RUNS = 5;
+  private static final int SUBTASKS = 256;
+  private static final int[] THREAD_COUNTS = { 1, 2, 4, 8, 16 };
+
+  /**
+   * What the writers update; the listener is a no-op in both cases.
+   */
+  private interface Aggregate {
+    void update(int subtask, long done, long total);
+  }
+
+  /**
+   * The baseline: one lock around the contribution table and the total.
+   */
+  private static final class LockedAggregate implements Aggregate {
+    private final long[] mWeights;
+    private final long mTotalWeight;
+    private final double[] mContributions;
+    private double mSum;
+    private int mReported = -1;
+
+    LockedAggregate(long[] weights) {
+      long total = 0;
+      for (long weight : weights) {
+        total += weight;
+      }
+      mWeights = weights;
+      mTotalWeight = total;
+      mContributions = new double[weights.length];
+    }
+
+    @Override
+    public synchronized void update(int subtask, long done, long total) {
+      double contribution = mWeights[subtask] * Math.min(1.0, (double) done / total);
+      mSum += contribution - mContributions[subtask];
+      mContributions[subtask] = contribution;
+      int percent = (int) (mSum * 100 / mTotalWeight);
+      if (percent > mReported) {
+        mReported = percent;
+      }
+    }
+  }
+
+  private interface Factory {
+    Aggregate newAggregate(long[] weights);
+  }
+
+  private static final Factory STRIPED = new Factory() {
+    @Override
+    public Aggregate newAggregate(long[] weights) {
+      final AggregateProgress progress = new AggregateProgress(weights,
+          new AggregateProgress.ProgressListener() {
+            @Override
+            public void onProgress(int percent) {
+            }
+          });
+      return new Aggregate() {
+        @Override
+        public void update(int subtask, long done, long total) {
+          progress.update(subtask, done, total);
+        }
+      };
+    }
+  };
+
+  private static final Factory LOCKED = new Factory() {
+    @Override
+    public Aggregate newAggregate(long[] weights) {
+      return new LockedAggregate(weights);
+    }
+  };
+
+  /**
+   * Returns the time one run took, in nanoseconds.
+   */
+  private static long run(Factory factory, int threads, final int updatesPerThread)
+      throws InterruptedException {
+    long[] weights = new long[SUBTASKS];
+    for (int i = 0; i < SUBTASKS; i++) {
+      // Uneven weights, as from slicing uneven work.
+      weights[i] = 1 + i % 7;
+    }
+    final Aggregate aggregate = factory.newAggregate(weights);
+    final CountDownLatch start = new CountDownLatch(1);
+    final CountDownLatch done = new CountDownLatch(threads);
+    for (int t = 0; t < threads; t++) {
+      // Thread t owns subtasks t, t + threads, t + 2 * threads...
+      final int first = t;
+      final int stride = threads;
+      final int owned = (SUBTASKS - t + threads - 1) / threads;
+      final long total = Math.max(1, updatesPerThread / owned);
+      new Thread("Writer " + t) {
+        @Override
+        public void run() {
+          try {
+            start.await();
+            for (int i = 0; i < updatesPerThread; i++) {
+              aggregate.update(first + (i % owned) * stride, i / owned + 1, total);
+            }
+          } catch (InterruptedException e) {
+            // Not interrupted by anyone.
+          } finally {
+            done.countDown();
+          }
+        }
+      }.start();
+    }
+    long startNanos = System.nanoTime();
+    start.countDown();
+    done.await();
+    return System.nanoTime() - startNanos;
+  }
+
+  private static void measure(String name, Factory factory, int threads, int updatesPerThread)
+      throws InterruptedException {
+    for (int i = 0; i < WARMUP_RUNS; i++) {
+      run(factory, threads, updatesPerThread);
+    }
+    long nanos = 0;
+    for (int i = 0; i < MEASURED_RUNS; i++) {
+      nanos += run(factory, threads, updatesPerThread);
+    }
+    long updates = (long) threads * updatesPerThread * MEASURED_RUNS;
+    System.out.println("  " + name + ", " + threads + " threads: " + updates * 1000000000L
+        / Math.max(1, nanos) + " updates/s");
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int updatesPerThread = args.length > 0 ? Integer.parseInt(args[0]) : 2000000;
+    System.out.println(SUBTASKS + " subtasks, " + updatesPerThread
+        + " updates per thread per run, " + Runtime.getRuntime().availableProcessors() + " CPUs");
+    for (int threads : THREAD_COUNTS) {
+      measure("AggregateProgress", STRIPED, threads, updatesPerThread);
+      measure("Locked aggregate", LOCKED, threads, updatesPerThread);
+    }
+  }
+
+}
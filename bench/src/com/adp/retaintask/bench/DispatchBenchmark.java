@@ -0,0 +1,359 @@
+package com.adp.retaintask.bench;
+
+import java.io.PrintWriter;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+
+import com.adp.retaintask.task.BackgroundTask;
+import com.adp.retaintask.task.ProgressChannel;
+import com.adp.retaintask.task.TaskExecutors;
+import com.adp.retaintask.util.LatencyHistogram;
+
+/**
+ * DispatchBenchmark measures the two halves of the task layer's dispatch path
+ * against the alternatives, on the JVM:
+ * <ul>
+ * <li>Delivery: a worker thread publishes progress as fast as it can to a
+ * listener on the main looper, through {@link ProgressChannel} (which
+ * {@link BackgroundTask#publishProgress} uses), through one boxed Handler
+ * message per update (which <code>AsyncTask.publishProgress()</code> does), and
+ * through a coalesced Handler post that isn't aligned to frames.</li>
+ * <li>Executors: the main thread executes a burst of short
+ * {@link BackgroundTask}s on {@link TaskExecutors#newPool}, on a plain FIFO
+ * pool of the same size, and on a single thread (like AsyncTask's serial
+ * default), and waits for every onPostExecute().</li>
+ * </ul>
+ * Each case gets warm-up runs and then measured runs. It reports ops/s,
+ * publish-to-delivery (or execute-to-onPostExecute) latency percentiles, and
+ * bytes allocated per update (or per task).
+ * <p>
+ * Usage: <code>DispatchBenchmark [updates per run] [tasks per run]</code>
+ */
+public final class DispatchBenchmark {
+  private static final int WARMUP_RUNS = 2;
+  private static final int MEASURED_RUNS = 5;
+  private static final int MSG_PROGRESS = 1;
+
+  private final int mUpdates;
+  private final int mTasks;
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  private final PrintWriter mWriter;
+  private Case[] mCases;
+  private int mCase;
+
+  /**
+   * One benchmarked case, run on the main thread. Subclasses start a run in
+   * {@link #startRun()}, and call {@link #endRun(long, long, long)} once it is
+   * over.
+   */
+  private abstract class Case {
+    final String mName;
+    final String mUnit;
+    final LatencyHistogram mLatency = new LatencyHistogram("us");
+    private int mRun;
+    private long mOps;
+    private long mNanos;
+    private long mBytes;
+
+    Case(String name, String unit) {
+      mName = name;
+      mUnit = unit;
+    }
+
+    abstract void startRun();
+
+    void tearDown() {
+    }
+
+    /**
+     * Record a finished run of <code>ops</code> operations, and start the next.
+     */
+    void endRun(long ops, long nanos, long bytes) {
+      if (mRun++ < WARMUP_RUNS) {
+        mLatency.reset();
+      } else {
+        mOps += ops;
+        mNanos += nanos;
+        mBytes += bytes;
+      }
+      mHandler.post(mRun < WARMUP_RUNS + MEASURED_RUNS ? mStartRun : mNextCase);
+    }
+
+    void report() {
+      mWriter.println(mName + ": " + mOps * 1000000000L / Math.max(1, mNanos) + " " + mUnit
+          + "s/s, " + String.format("%.1f", (double) mBytes / Math.max(1, mOps)) + " bytes/"
+          + mUnit);
+      mLatency.dump("    ", "Latency", mWriter);
+      mWriter.flush();
+    }
+  }
+
+  /**
+   * A worker thread publishing {@link #mUpdates} timestamps through
+   * {@link #publish(long)}; subclasses hand each delivered one to
+   * {@link #delivered(long)} on the main thread.
+   */
+  private abstract class DeliveryCase extends Case {
+    // Written by the worker, read on the main thread once it is done.
+    private volatile long mLastPublished;
+    private volatile long mWorkerNanos;
+    private volatile long mWorkerBytes;
+    // Only accessed on the main thread.
+    private boolean mRunning;
+    private boolean mWorkerDone;
+    private long mLastDelivered;
+    private long mMainBytesAtStart;
+
+    private final Runnable mOnWorkerDone = new Runnable() {
+      @Override
+      public void run() {
+        mWorkerDone = true;
+        maybeEndRun();
+      }
+    };
+
+    DeliveryCase(String name) {
+      super(name, "update");
+    }
+
+    /** Called on the worker thread. */
+    abstract void publish(long value);
+
+    @Override
+    void startRun() {
+      mRunning = true;
+      mWorkerDone = false;
+      mLastDelivered = 0;
+      mMainBytesAtStart = Allocations.ofCurrentThread();
+      new Thread(mName) {
+        @Override
+        public void run() {
+          long bytes = Allocations.ofCurrentThread();
+          long start = System.nanoTime();
+          long value = 0;
+          for (int i = 0; i < mUpdates; i++) {
+            value = System.nanoTime();
+            publish(value);
+          }
+          mWorkerNanos = System.nanoTime() - start;
+          mWorkerBytes = Allocations.ofCurrentThread() - bytes;
+          mLastPublished = value;
+          mHandler.post(mOnWorkerDone);
+        }
+      }.start();
+    }
+
+    /** Called on the main thread. */
+    void delivered(long value) {
+      mLatency.record((System.nanoTime() - value) / 1000);
+      mLastDelivered = value;
+      maybeEndRun();
+    }
+
+    private void maybeEndRun() {
+      if (mRunning && mWorkerDone && mLastDelivered == mLastPublished) {
+        mRunning = false;
+        long mainBytes = Allocations.ofCurrentThread() - mMainBytesAtStart;
+        endRun(mUpdates, mWorkerNanos, mWorkerBytes + mainBytes);
+      }
+    }
+  }
+
+  /**
+   * The main thread executing {@link #mTasks} tasks that do nothing, and
+   * waiting for all of them to finish.
+   */
+  private final class ExecutorCase extends Case {
+    private final Executor mExecutor;
+    // Only accessed on the main thread.
+    private int mDone;
+    private long mStartNanos;
+    private long mBytesAtStart;
+
+    private final BackgroundTask.Listener mListener = new BackgroundTask.Listener() {
+      @Override
+      public void onPreExecute(BackgroundTask<?> task) {
+      }
+
+      @Override
+      public void onProgressUpdate(BackgroundTask<?> task, int percent) {
+      }
+
+      @Override
+      public void onCancelled(BackgroundTask<?> task) {
+      }
+
+      @Override
+      public void onTimedOut(BackgroundTask<?> task) {
+      }
+
+      @Override
+      public void onFailed(BackgroundTask<?> task) {
+      }
+
+      @Override
+      public void onPostExecute(BackgroundTask<?> task) {
+        mLatency.record((System.nanoTime() - ((NoopTask) task).mExecutedAtNanos) / 1000);
+        if (++mDone == mTasks) {
+          // Pool threads stay alive between runs, so they are all counted.
+          endRun(mTasks, System.nanoTime() - mStartNanos, Allocations.ofAllThreads()
+              - mBytesAtStart);
+        }
+      }
+    };
+
+    ExecutorCase(String name, Executor executor) {
+      super(name, "task");
+      mExecutor = executor;
+    }
+
+    @Override
+    void startRun() {
+      mDone = 0;
+      mBytesAtStart = Allocations.ofAllThreads();
+      mStartNanos = System.nanoTime();
+      for (int i = 0; i < mTasks; i++) {
+        NoopTask task = new NoopTask(mListener);
+        task.mExecutedAtNanos = System.nanoTime();
+        task.execute(mExecutor);
+      }
+    }
+
+    @Override
+    void tearDown() {
+      ((ExecutorService) mExecutor).shutdown();
+    }
+  }
+
+  private static final class NoopTask extends BackgroundTask<Void> {
+    long mExecutedAtNanos; // main thread only
+
+    NoopTask(Listener listener) {
+      super("noop", listener);
+    }
+
+    @Override
+    protected Void doInBackground() {
+      return null;
+    }
+  }
+
+  private final Runnable mStartRun = new Runnable() {
+    @Override
+    public void run() {
+      mCases[mCase].startRun();
+    }
+  };
+
+  private final Runnable mNextCase = new Runnable() {
+    @Override
+    public void run() {
+      mCases[mCase].tearDown();
+      mCases[mCase].report();
+      if (++mCase < mCases.length) {
+        mCases[mCase].startRun();
+      } else {
+        Looper.myLooper().quit();
+      }
+    }
+  };
+
+  public DispatchBenchmark(int updates, int tasks, PrintWriter writer) {
+    mUpdates = updates;
+    mTasks = tasks;
+    mWriter = writer;
+  }
+
+  /**
+   * Run every case in turn. Must be called on the main thread; the main
+   * looper quits once the last case has reported.
+   */
+  public void start() {
+    int poolSize = TaskExecutors.DEFAULT_POOL_SIZE;
+    mCases = new Case[] {
+        new DeliveryCase("ProgressChannel, coalesced per frame") {
+          private final ProgressChannel mChannel = new ProgressChannel(
+              new ProgressChannel.Listener() {
+                @Override
+                public void onProgress(long value) {
+                  delivered(value);
+                }
+              });
+
+          @Override
+          void publish(long value) {
+            mChannel.publish(value);
+          }
+        },
+        new DeliveryCase("Handler message per update, boxed (AsyncTask)") {
+          private final Handler mProgressHandler = new Handler(Looper.getMainLooper()) {
+            @Override
+            public void handleMessage(Message msg) {
+              delivered((Long) ((Object[]) msg.obj)[0]);
+            }
+          };
+
+          @Override
+          void publish(long value) {
+            mProgressHandler.obtainMessage(MSG_PROGRESS, new Object[] { value }).sendToTarget();
+          }
+        },
+        new DeliveryCase("Handler post, coalesced") {
+          private final AtomicBoolean mPosted = new AtomicBoolean();
+          private volatile long mLatest;
+          private final Runnable mDeliver = new Runnable() {
+            @Override
+            public void run() {
+              mPosted.set(false);
+              delivered(mLatest);
+            }
+          };
+
+          @Override
+          void publish(long value) {
+            mLatest = value;
+            if (mPosted.compareAndSet(false, true)) {
+              mHandler.post(mDeliver);
+            }
+          }
+        },
+        new ExecutorCase("PriorityTaskExecutor (TaskExecutors.newPool), " + poolSize
+            + " threads", TaskExecutors.newPool("Bench", poolSize)),
+        new ExecutorCase("ThreadPoolExecutor, FIFO, " + poolSize + " threads",
+            new ThreadPoolExecutor(poolSize, poolSize, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>())),
+        new ExecutorCase("Single thread (AsyncTask serial default)",
+            Executors.newSingleThreadExecutor()),
+    };
+    mWriter.println(WARMUP_RUNS + " warm-up and " + MEASURED_RUNS + " measured runs each; "
+        + mUpdates + " updates or " + mTasks + " tasks per run");
+    mCases[0].startRun();
+  }
+
+  public static void main(String[] args) {
+    int updates = args.length > 0 ? Integer.parseInt(args[0]) : 1000000;
+    int tasks = args.length > 1 ? Integer.parseInt(args[1]) : 20000;
+
+    // Before anything binds a handler to the main looper.
+    Looper.prepareMainLooper();
+    final DispatchBenchmark benchmark =
+        new DispatchBenchmark(updates, tasks, new PrintWriter(System.out));
+    new Handler(Looper.getMainLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        benchmark.start();
+      }
+    });
+    Looper.loop();
+  }
+
+}
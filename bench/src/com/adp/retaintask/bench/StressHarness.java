@@ -0,0 +1,390 @@
+package com.adp.retaintask.bench;
+
+import java.io.PrintWriter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.LockSupport;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.adp.retaintask.task.BackgroundTask;
+import com.adp.retaintask.task.FrameScheduler;
+import com.adp.retaintask.task.Pipeline;
+import com.adp.retaintask.task.ProgressChannel;
+import com.adp.retaintask.task.TaskEngine;
+import com.adp.retaintask.task.TaskHost;
+import com.adp.retaintask.task.TaskMetrics;
+import com.adp.retaintask.task.VirtualClock;
+import com.adp.retaintask.util.LatencyHistogram;
+import com.adp.retaintask.util.Trace;
+
+/**
+ * StressHarness load-tests the task layer on the JVM. A number of slots each
+ * run tasks one after another until 10,000 have finished. Every slot has a
+ * {@link TaskHost}, the part of a TaskFragment that is retained, and a window
+ * that stands in for the Activity. Meanwhile, storms of back-to-back recreates
+ * take every slot through the sequence a retained TaskFragment goes through:
+ * {@link TaskHost#detach()} as in onDetach(), then, in a later message so that
+ * callbacks arrive in between, {@link TaskHost#attach} and
+ * {@link TaskHost#replay()} for a new window, as in onAttach() and
+ * onActivityCreated().
+ * <p>
+ * Most tasks are DummyTasks. Every {@link #PIPELINE_EVERY}th is a pipeline
+ * that streams {@link #PIPELINE_ITEMS} partial results, which must all reach
+ * the windows, whether live or held across recreates. Every
+ * {@link #RESTART_EVERY}th DummyTask is cancelled as soon as it starts
+ * and restarted under the same ID; the cancelled run's late events must never
+ * reach a window.
+ * <p>
+ * The DummyTasks' work (100 steps of 100ms) runs on a worker thread in the
+ * virtual time of a {@link VirtualClock}, so the whole run takes seconds.
+ * Callbacks still travel to the main looper and its frames in real time, and
+ * that is what the reported latencies measure.
+ * <p>
+ * Usage: <code>StressHarness [tasks] [hosts] [storm interval ms] [recreates
+ * per storm]</code>
+ */
+public final class StressHarness {
+  private static final int PIPELINE_EVERY = 10;
+  private static final int PIPELINE_ITEMS = 200;
+  private static final int RESTART_EVERY = 10;
+
+  private static final Pipeline<Integer, Integer> PIPELINE = Pipeline.<Integer> create().then(
+      "square", new Pipeline.Stage<Integer, Integer>() {
+        @Override
+        public Integer process(Integer item) {
+          return item * item;
+        }
+      }, 16, Pipeline.Overflow.BLOCK);
+
+  /**
+   * One host position: a retained TaskHost and the window currently attached
+   * to it.
+   */
+  private final class Slot {
+    final TaskHost mTasks = new TaskHost(Trace.TASK_FRAGMENT);
+    private Window mWindow;
+    // The task this slot is running, and what its windows have seen of it.
+    private String mId;
+    private boolean mPipeline;
+    private boolean mRestarting;
+    private int mPartials;
+
+    Slot() {
+      mTasks.setClock(mClock);
+      mTasks.setExecutor(mExecutor);
+      attach();
+    }
+
+    /**
+     * Start the next task, if any are left to start.
+     */
+    void startNext() {
+      mId = null;
+      if (mStarted == mTaskCount) {
+        return;
+      }
+      int index = mStarted++;
+      mId = "task-" + index;
+      mPipeline = index % PIPELINE_EVERY == PIPELINE_EVERY - 1;
+      mRestarting = !mPipeline && index % RESTART_EVERY == 0;
+      mPartials = 0;
+      if (mPipeline) {
+        mTasks.startPipeline(mId, PIPELINE, sPipelineItems);
+      } else {
+        mTasks.start(mId);
+      }
+    }
+
+    void detach() {
+      mTasks.detach();
+      mWindow = null;
+    }
+
+    void attach() {
+      mWindow = new Window(this);
+      mTasks.attach(mWindow);
+      mTasks.replay();
+    }
+  }
+
+  /**
+   * Stands in for one Activity instance; replaced on every recreate.
+   */
+  private final class Window implements TaskHost.PartialResultCallbacks {
+    private final Slot mSlot;
+
+    Window(Slot slot) {
+      mSlot = slot;
+    }
+
+    @Override
+    public void onPreExecute(String id) {
+      onCallback(id);
+      if (mSlot.mRestarting && id.equals(mSlot.mId)) {
+        // Cancel and restart at once. The engine has no grace period here, so
+        // this is a new run, and the old one's events are stale.
+        mSlot.mRestarting = false;
+        mRestarts++;
+        mSlot.mTasks.cancel(id);
+        mSlot.mTasks.start(id);
+      }
+    }
+
+    @Override
+    public void onProgressUpdate(String id, int percent) {
+      onCallback(id);
+      mProgressUpdates++;
+    }
+
+    @Override
+    public void onPartialResults(String id, List<?> items) {
+      onCallback(id);
+      mSlot.mPartials += items.size();
+    }
+
+    @Override
+    public void onCancelled(String id) {
+      onUnexpected(id);
+    }
+
+    @Override
+    public void onTimedOut(String id) {
+      onUnexpected(id);
+    }
+
+    @Override
+    public void onFailed(String id) {
+      onUnexpected(id);
+    }
+
+    @Override
+    public void onPostExecute(String id) {
+      onCallback(id);
+      Long returnedAt = mReturnedAtNanos.remove(id);
+      if (returnedAt != null) {
+        mFinishLatency.record((System.nanoTime() - returnedAt) / 1000);
+      }
+      if (mSlot.mPipeline && mSlot.mPartials != PIPELINE_ITEMS) {
+        mLostPartials += PIPELINE_ITEMS - mSlot.mPartials;
+      }
+      if (++mCompleted == mTaskCount) {
+        end();
+      } else {
+        mSlot.startNext();
+      }
+    }
+
+    private void onCallback(String id) {
+      mCallbacks++;
+      if (mSlot.mWindow != this || !id.equals(mSlot.mId)) {
+        // A detached window, or a task this slot is no longer running.
+        mStrayCallbacks++;
+      }
+    }
+
+    private void onUnexpected(String id) {
+      onCallback(id);
+      mUnexpected++;
+      mSlot.startNext();
+    }
+  }
+
+  private static final List<Integer> sPipelineItems = new ArrayList<Integer>();
+  static {
+    for (int i = 0; i < PIPELINE_ITEMS; i++) {
+      sPipelineItems.add(i);
+    }
+  }
+
+  private final int mTaskCount;
+  private final long mStormIntervalMillis;
+  private final int mRecreatesPerStorm;
+  private final Slot[] mSlots;
+  private final VirtualClock mClock = new VirtualClock();
+  /** Tasks started on the main thread, waiting to be queued on the clock. */
+  private final Queue<Runnable> mStarting = new ConcurrentLinkedQueue<Runnable>();
+  /** When each task's worker returned, by task ID. */
+  private final Map<String, Long> mReturnedAtNanos = new ConcurrentHashMap<String, Long>();
+  private final Handler mHandler = new Handler(Looper.getMainLooper());
+  /** From a worker returning to its window's onPostExecute(), in microseconds. */
+  private final LatencyHistogram mFinishLatency = new LatencyHistogram("us");
+  private volatile boolean mDone;
+
+  // Only accessed on the main thread.
+  private int mStarted;
+  private int mCompleted;
+  private long mCallbacks;
+  private long mProgressUpdates;
+  private long mRecreates;
+  private int mPendingRecreates;
+  private int mStorms;
+  private int mRestarts;
+  private int mUnexpected;
+  private long mStrayCallbacks;
+  private long mLostPartials;
+  private long mStartNanos;
+  private long mEndNanos;
+
+  /**
+   * Hands tasks to the driver, since only its thread runs the clock, and notes
+   * when each one returns.
+   */
+  private final Executor mExecutor = new Executor() {
+    @Override
+    public void execute(final Runnable command) {
+      mStarting.offer(new Runnable() {
+        @Override
+        public void run() {
+          command.run();
+          mReturnedAtNanos.put(((BackgroundTask<?>) command).getId(), System.nanoTime());
+        }
+      });
+    }
+  };
+
+  /** Runs the tasks' work in virtual time until the run is over. */
+  private final Thread mWorker = new Thread("VirtualClock driver") {
+    @Override
+    public void run() {
+      while (!mDone) {
+        Runnable command;
+        while ((command = mStarting.poll()) != null) {
+          mClock.execute(command);
+        }
+        if (mClock.runUntilIdle() == 0) {
+          LockSupport.parkNanos(100 * 1000);
+        }
+      }
+    }
+  };
+
+  private final Runnable mDetachAll = new Runnable() {
+    @Override
+    public void run() {
+      if (mDone) {
+        return;
+      }
+      for (Slot slot : mSlots) {
+        slot.detach();
+      }
+      // Behind whatever is queued already, so that callbacks get in between,
+      // as they do between the old Activity going and the new one coming.
+      mHandler.post(mAttachAll);
+    }
+  };
+
+  private final Runnable mAttachAll = new Runnable() {
+    @Override
+    public void run() {
+      if (mDone) {
+        return;
+      }
+      for (Slot slot : mSlots) {
+        slot.attach();
+        mRecreates++;
+      }
+      if (--mPendingRecreates > 0) {
+        mHandler.post(mDetachAll);
+      }
+    }
+  };
+
+  private final Runnable mStorm = new Runnable() {
+    @Override
+    public void run() {
+      mStorms++;
+      // Back to back, unless the last storm is still going.
+      if (mPendingRecreates == 0) {
+        mHandler.post(mDetachAll);
+      }
+      mPendingRecreates += mRecreatesPerStorm;
+      mHandler.postDelayed(this, mStormIntervalMillis);
+    }
+  };
+
+  public StressHarness(int tasks, int hosts, long stormIntervalMillis, int recreatesPerStorm) {
+    mTaskCount = tasks;
+    mStormIntervalMillis = stormIntervalMillis;
+    mRecreatesPerStorm = recreatesPerStorm;
+    mSlots = new Slot[hosts];
+  }
+
+  /**
+   * Start the run. Must be called on the main thread; the main looper quits
+   * once every task has finished.
+   */
+  public void start() {
+    // Make cancel() final, so that a restart is a new run.
+    TaskEngine.setCancelGracePeriod(0);
+    mStartNanos = System.nanoTime();
+    mWorker.start();
+    for (int i = 0; i < mSlots.length; i++) {
+      mSlots[i] = new Slot();
+      mSlots[i].startNext();
+    }
+    mHandler.postDelayed(mStorm, mStormIntervalMillis);
+  }
+
+  private void end() {
+    mEndNanos = System.nanoTime();
+    mDone = true;
+    mHandler.removeCallbacks(mStorm);
+    mHandler.removeCallbacks(mDetachAll);
+    mHandler.removeCallbacks(mAttachAll);
+    Looper.myLooper().quit();
+  }
+
+  /**
+   * Prints throughput, callback latency and the task layer's own metrics, and
+   * returns true if every callback reached the right window.
+   */
+  public boolean report(PrintWriter writer) {
+    long elapsedMillis = Math.max(1, (mEndNanos - mStartNanos) / 1000000);
+    writer.println("Ran " + mCompleted + " tasks on " + mSlots.length + " hosts in "
+        + elapsedMillis + "ms (" + mCompleted * 1000L / elapsedMillis + " tasks/s, "
+        + mClock.uptimeMillis() / 1000 + "s of virtual time)");
+    writer.println("Recreates: " + mRecreates + " in " + mStorms + " storms, " + mRestarts
+        + " tasks cancelled and restarted");
+    writer.println("Callbacks: " + mCallbacks + " (" + mCallbacks * 1000L / elapsedMillis
+        + "/s), " + mProgressUpdates + " progress updates");
+    writer.println("Errors: " + mUnexpected + " unexpected outcomes, " + mStrayCallbacks
+        + " stray callbacks, " + mLostPartials + " partial results lost");
+    mFinishLatency.dump("  ", "Worker return to onPostExecute", writer);
+    ProgressChannel.getDeliveryLatency().dump("  ", "Progress publish to delivery", writer);
+    FrameScheduler.getQueueDelay().dump("  ", "Frame dispatch delay", writer);
+    TaskMetrics.dump("  ", mClock, writer);
+    writer.flush();
+    return mUnexpected == 0 && mStrayCallbacks == 0 && mLostPartials == 0;
+  }
+
+  public static void main(String[] args) throws InterruptedException {
+    int tasks = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int hosts = args.length > 1 ? Integer.parseInt(args[1]) : 100;
+    long stormInterval = args.length > 2 ? Long.parseLong(args[2]) : 50;
+    int recreates = args.length > 3 ? Integer.parseInt(args[3]) : 10;
+
+    // Before anything binds a handler to the main looper.
+    Looper.prepareMainLooper();
+    final StressHarness harness = new StressHarness(tasks, hosts, stormInterval, recreates);
+    new Handler(Looper.getMainLooper()).post(new Runnable() {
+      @Override
+      public void run() {
+        harness.start();
+      }
+    });
+    Looper.loop();
+    harness.mWorker.join();
+    if (!harness.report(new PrintWriter(System.out))) {
+      System.out.println("FAILED: callbacks went missing or astray");
+      System.exit(1);
+    }
+  }
+
+}
@@ -5,7 +5,6 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentManager;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 import android.view.View;
@@ -14,19 +13,28 @@ import android.widget.ProgressBar;
 import android.widget.TextView;
 import android.widget.Toast;
 
+import com.adp.retaintask.util.LifecycleMetrics;
+import com.adp.retaintask.util.Trace;
+
 /**
  * MainActivity displays the screen's UI and starts a TaskFragment which will
  * execute an asynchronous task and will retain itself when configuration
  * changes occur.
  */
 public class MainActivity extends FragmentActivity implements TaskFragment.TaskCallbacks {
-  private static final String TAG = MainActivity.class.getSimpleName();
-  private static final boolean DEBUG = true; // Set this to false to disable logs.
 
   private static final String KEY_CURRENT_PROGRESS = "current_progress";
   private static final String KEY_PERCENT_PROGRESS = "percent_progress";
   private static final String TAG_TASK_FRAGMENT = "task_fragment";
 
+  // "0%" through "100%", built once so that progress updates don't allocate.
+  private static final String[] PERCENT_LABELS = new String[101];
+  static {
+    for (int i = 0; i < PERCENT_LABELS.length; i++) {
+      PERCENT_LABELS[i] = i + "%";
+    }
+  }
+
   private TaskFragment mTaskFragment;
   private ProgressBar mProgressBar;
   private TextView mPercent;
@@ -34,7 +42,7 @@ public class MainActivity extends FragmentActivity implements TaskFragment.TaskC
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
-    if (DEBUG) Log.i(TAG, "onCreate(Bundle)");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_CREATE);
     super.onCreate(savedInstanceState);
     setContentView(R.layout.main);
 
@@ -78,7 +86,7 @@ public class MainActivity extends FragmentActivity implements TaskFragment.TaskC
 
   @Override
   public void onSaveInstanceState(Bundle outState) {
-    if (DEBUG) Log.i(TAG, "onSaveInstanceState(Bundle)");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_SAVE_INSTANCE_STATE);
     super.onSaveInstanceState(outState);
     outState.putInt(KEY_CURRENT_PROGRESS, mProgressBar.getProgress());
     outState.putString(KEY_PERCENT_PROGRESS, mPercent.getText().toString());
@@ -89,22 +97,22 @@ public class MainActivity extends FragmentActivity implements TaskFragment.TaskC
   /*********************************/
 
   @Override
-  public void onPreExecute() {
-    if (DEBUG) Log.i(TAG, "onPreExecute()");
+  public void onPreExecute(String id) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_PRE_EXECUTE);
     mButton.setText(getString(R.string.cancel));
     Toast.makeText(this, R.string.task_started_msg, Toast.LENGTH_SHORT).show();
   }
 
   @Override
-  public void onProgressUpdate(int percent) {
-    if (DEBUG) Log.i(TAG, "onProgressUpdate(" + percent + "%)");
+  public void onProgressUpdate(String id, int percent) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_PROGRESS_UPDATE, percent);
     mProgressBar.setProgress(percent * mProgressBar.getMax() / 100);
-    mPercent.setText(percent + "%");
+    mPercent.setText(PERCENT_LABELS[percent]);
   }
 
   @Override
-  public void onCancelled() {
-    if (DEBUG) Log.i(TAG, "onCancelled()");
+  public void onCancelled(String id) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_CANCELLED);
     mButton.setText(getString(R.string.start));
     mProgressBar.setProgress(0);
     mPercent.setText(getString(R.string.zero_percent));
@@ -112,8 +120,26 @@ public class MainActivity extends FragmentActivity implements TaskFragment.TaskC
   }
 
   @Override
-  public void onPostExecute() {
-    if (DEBUG) Log.i(TAG, "onPostExecute()");
+  public void onTimedOut(String id) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_TIMED_OUT);
+    mButton.setText(getString(R.string.start));
+    mProgressBar.setProgress(0);
+    mPercent.setText(getString(R.string.zero_percent));
+    Toast.makeText(this, R.string.task_timed_out_msg, Toast.LENGTH_SHORT).show();
+  }
+
+  @Override
+  public void onFailed(String id) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_FAILED);
+    mButton.setText(getString(R.string.start));
+    mProgressBar.setProgress(0);
+    mPercent.setText(getString(R.string.zero_percent));
+    Toast.makeText(this, R.string.task_failed_msg, Toast.LENGTH_SHORT).show();
+  }
+
+  @Override
+  public void onPostExecute(String id) {
+    if (Trace.ENABLED) Trace.event(Trace.MAIN_ACTIVITY, Trace.ON_POST_EXECUTE);
     mButton.setText(getString(R.string.start));
     mProgressBar.setProgress(mProgressBar.getMax());
     mPercent.setText(getString(R.string.one_hundred_percent));
@@ -149,31 +175,31 @@ public class MainActivity extends FragmentActivity implements TaskFragment.TaskC
 
   @Override
   protected void onStart() {
-    if (DEBUG) Log.i(TAG, "onStart()");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_START);
     super.onStart();
   }
 
   @Override
   protected void onResume() {
-    if (DEBUG) Log.i(TAG, "onResume()");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_RESUME);
     super.onResume();
   }
 
   @Override
   protected void onPause() {
-    if (DEBUG) Log.i(TAG, "onPause()");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_PAUSE);
     super.onPause();
   }
 
   @Override
   protected void onStop() {
-    if (DEBUG) Log.i(TAG, "onStop()");
+    LifecycleMetrics.mark(Trace.MAIN_ACTIVITY, Trace.ON_STOP);
     super.onStop();
   }
 
   @Override
   protected void onDestroy() {
-    if (DEBUG) Log.i(TAG, "onDestroy()");
+    LifecycleMetrics.markDestroyed(Trace.MAIN_ACTIVITY, isFinishing());
     super.onDestroy();
   }
 
@@ -0,0 +1,23 @@
+package com.adp.retaintask;
+
+import android.app.Application;
+import android.content.pm.ApplicationInfo;
+
+import com.adp.retaintask.util.LeakWatchdog;
+
+/**
+ * RetainTaskApplication sets up the process-wide debugging aids before either
+ * launcher Activity is created.
+ */
+public class RetainTaskApplication extends Application {
+
+  @Override
+  public void onCreate() {
+    super.onCreate();
+    if ((getApplicationInfo().flags & ApplicationInfo.FLAG_DEBUGGABLE) != 0) {
+      // Watching forces full collections, so only debuggable builds pay for it.
+      LeakWatchdog.start();
+    }
+  }
+
+}
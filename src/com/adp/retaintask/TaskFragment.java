@@ -1,34 +1,45 @@
 package com.adp.retaintask;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.PrintWriter;
+
+import android.annotation.TargetApi;
 import android.app.Activity;
-import android.os.AsyncTask;
+import android.content.ComponentCallbacks2;
+import android.content.res.Configuration;
+import android.os.Build;
 import android.os.Bundle;
-import android.os.SystemClock;
 import android.support.v4.app.Fragment;
-import android.util.Log;
+
+import com.adp.retaintask.task.TaskHost;
+import com.adp.retaintask.task.TaskSnapshot;
+import com.adp.retaintask.util.JankMonitor;
+import com.adp.retaintask.util.LeakWatchdog;
+import com.adp.retaintask.util.LifecycleMetrics;
+import com.adp.retaintask.util.Trace;
 
 /**
- * TaskFragment manages a single background task and retains itself across
- * configuration changes.
+ * TaskFragment retains itself across configuration changes, and with it a
+ * {@link TaskHost} that manages any number of background tasks, keyed by ID.
+ * The fragment only binds the host to the Activity: the tasks themselves, and
+ * bringing each new Activity up to date with them, are the host's business.
+ * Use {@link #getTasks()} for anything beyond the default task.
  */
 public class TaskFragment extends Fragment {
-  private static final String TAG = TaskFragment.class.getSimpleName();
-  private static final boolean DEBUG = true; // Set this to false to disable logs.
 
   /**
-   * Callback interface through which the fragment can report the task's
-   * progress and results back to the Activity.
+   * Callback interface through which the fragment can report each task's
+   * progress and results back to the Activity. Every method receives the ID of
+   * the task it concerns. Activities may implement
+   * {@link TaskHost.TransferCallbacks} or {@link TaskHost.PartialResultCallbacks}
+   * as well.
    */
-  static interface TaskCallbacks {
-    void onPreExecute();
-    void onProgressUpdate(int percent);
-    void onCancelled();
-    void onPostExecute();
+  static interface TaskCallbacks extends TaskHost.Callbacks {
   }
 
-  private TaskCallbacks mCallbacks;
-  private DummyTask mTask;
-  private boolean mRunning;
+  private final TaskHost mTasks = new TaskHost(Trace.TASK_FRAGMENT);
+  private TrimMemoryCallbacks mTrimMemoryCallbacks;
 
   /**
    * Hold a reference to the parent Activity so we can report the task's current
@@ -37,7 +48,7 @@ public class TaskFragment extends Fragment {
    */
   @Override
   public void onAttach(Activity activity) {
-    if (DEBUG) Log.i(TAG, "onAttach(Activity)");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_ATTACH);
     super.onAttach(activity);
     if (!(activity instanceof TaskCallbacks)) {
       throw new IllegalStateException("Activity must implement the TaskCallbacks interface.");
@@ -45,7 +56,7 @@ public class TaskFragment extends Fragment {
 
     // Hold a reference to the parent Activity so we can report back the task's
     // current progress and results.
-    mCallbacks = (TaskCallbacks) activity;
+    mTasks.attach((TaskCallbacks) activity);
   }
 
   /**
@@ -53,9 +64,45 @@ public class TaskFragment extends Fragment {
    */
   @Override
   public void onCreate(Bundle savedInstanceState) {
-    if (DEBUG) Log.i(TAG, "onCreate(Bundle)");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_CREATE);
     super.onCreate(savedInstanceState);
     setRetainInstance(true);
+    mTasks.setJournalDir(new File(getActivity().getFilesDir(), "task-journal"));
+    if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.ICE_CREAM_SANDWICH) {
+      // Fragments don't receive onTrimMemory(), so listen for it ourselves.
+      mTrimMemoryCallbacks = new TrimMemoryCallbacks();
+      getActivity().getApplicationContext().registerComponentCallbacks(mTrimMemoryCallbacks);
+    }
+  }
+
+  /**
+   * Replay the latest state of every task to the new Activity. The Activity's
+   * views are guaranteed to exist by now, which is not the case yet in
+   * {@link #onAttach(Activity)}. The first time around, this is also where we
+   * resume any tasks that a previous process was killed in the middle of.
+   */
+  @Override
+  public void onActivityCreated(Bundle savedInstanceState) {
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_ACTIVITY_CREATED);
+    super.onActivityCreated(savedInstanceState);
+    mTasks.replay();
+  }
+
+  /**
+   * Drop the reference to the old Activity, and have the {@link LeakWatchdog}
+   * check that it is collected. Events that arrive before the next one
+   * attaches are collapsed into each task's {@link TaskSnapshot}.
+   */
+  @Override
+  public void onDetach() {
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_DETACH);
+    super.onDetach();
+    TaskHost.Callbacks callbacks = mTasks.detach();
+    if (callbacks != null) {
+      // The old host is on its way out; make sure nothing keeps it alive (if
+      // the watchdog is started).
+      LeakWatchdog.watch(callbacks, "detached from " + getClass().getSimpleName());
+    }
   }
 
   /**
@@ -66,9 +113,19 @@ public class TaskFragment extends Fragment {
    */
   @Override
   public void onDestroy() {
-    if (DEBUG) Log.i(TAG, "onDestroy()");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_DESTROY);
     super.onDestroy();
-    cancel();
+    mTasks.destroy();
+    if (mTrimMemoryCallbacks != null) {
+      getActivity().getApplicationContext().unregisterComponentCallbacks(mTrimMemoryCallbacks);
+      mTrimMemoryCallbacks = null;
+    }
+  }
+
+  @Override
+  public void onLowMemory() {
+    super.onLowMemory();
+    mTasks.getResultCache().onLowMemory();
   }
 
   /*****************************/
@@ -76,83 +133,52 @@ public class TaskFragment extends Fragment {
   /*****************************/
 
   /**
-   * Start the background task.
+   * Start the default background task.
    */
   public void start() {
-    if (!mRunning) {
-      mTask = new DummyTask();
-      mTask.execute();
-      mRunning = true;
-    }
+    mTasks.start();
   }
 
   /**
-   * Cancel the background task.
+   * Cancel the default background task.
    */
   public void cancel() {
-    if (mRunning) {
-      mTask.cancel(false);
-      mTask = null;
-      mRunning = false;
-    }
+    mTasks.cancel();
   }
 
   /**
-   * Returns the current state of the background task.
+   * Returns the current state of the default background task.
    */
   public boolean isRunning() {
-    return mRunning;
+    return mTasks.isRunning();
   }
 
-  /***************************/
-  /***** BACKGROUND TASK *****/
-  /***************************/
-
   /**
-   * A dummy task that performs some (dumb) background work and proxies progress
-   * updates and results back to the Activity.
+   * Returns the host managing this fragment's tasks, to start, cancel and query
+   * them by ID.
    */
-  private class DummyTask extends AsyncTask<Void, Integer, Void> {
-
-    @Override
-    protected void onPreExecute() {
-      // Proxy the call to the Activity.
-      mCallbacks.onPreExecute();
-      mRunning = true;
-    }
-
-    /**
-     * Note that we do NOT call the callback object's methods directly from the
-     * background thread, as this could result in a race condition.
-     */
-    @Override
-    protected Void doInBackground(Void... ignore) {
-      for (int i = 0; !isCancelled() && i < 100; i++) {
-        if (DEBUG) Log.i(TAG, "publishProgress(" + i + "%)");
-        SystemClock.sleep(100);
-        publishProgress(i);
-      }
-      return null;
-    }
+  public TaskHost getTasks() {
+    return mTasks;
+  }
 
+  /**
+   * Forwards memory pressure to the result cache. Kept in its own class since
+   * ComponentCallbacks2 only exists on Ice Cream Sandwich and above.
+   */
+  @TargetApi(Build.VERSION_CODES.ICE_CREAM_SANDWICH)
+  private class TrimMemoryCallbacks implements ComponentCallbacks2 {
     @Override
-    protected void onProgressUpdate(Integer... percent) {
-      // Proxy the call to the Activity.
-      mCallbacks.onProgressUpdate(percent[0]);
+    public void onTrimMemory(int level) {
+      mTasks.getResultCache().onTrimMemory(level);
     }
 
     @Override
-    protected void onCancelled() {
-      // Proxy the call to the Activity.
-      mCallbacks.onCancelled();
-      mRunning = false;
+    public void onLowMemory() {
+      mTasks.getResultCache().onLowMemory();
     }
 
     @Override
-    protected void onPostExecute(Void ignore) {
-      // Proxy the call to the Activity.
-      mCallbacks.onPostExecute();
-      mRunning = false;
+    public void onConfigurationChanged(Configuration newConfig) {
     }
   }
 
@@ -160,34 +186,43 @@ public class TaskFragment extends Fragment {
   /***** LOGS & STUFF *****/
   /************************/
 
-  @Override
-  public void onActivityCreated(Bundle savedInstanceState) {
-    if (DEBUG) Log.i(TAG, "onActivityCreated(Bundle)");
-    super.onActivityCreated(savedInstanceState);
-  }
-
   @Override
   public void onStart() {
-    if (DEBUG) Log.i(TAG, "onStart()");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_START);
     super.onStart();
   }
 
   @Override
   public void onResume() {
-    if (DEBUG) Log.i(TAG, "onResume()");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_RESUME);
     super.onResume();
   }
 
   @Override
   public void onPause() {
-    if (DEBUG) Log.i(TAG, "onPause()");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_PAUSE);
     super.onPause();
   }
 
   @Override
   public void onStop() {
-    if (DEBUG) Log.i(TAG, "onStop()");
+    LifecycleMetrics.mark(Trace.TASK_FRAGMENT, Trace.ON_STOP);
     super.onStop();
   }
 
+  /**
+   * Prints task counters, result cache statistics, cancellation, delivery and
+   * lifecycle latencies, leak and jank reports and the shared event trace as
+   * part of <code>adb shell dumpsys activity &lt;package&gt;</code>.
+   */
+  @Override
+  public void dump(String prefix, FileDescriptor fd, PrintWriter writer, String[] args) {
+    super.dump(prefix, fd, writer, args);
+    mTasks.dump(prefix, writer);
+    LifecycleMetrics.dump(prefix, writer);
+    LeakWatchdog.dump(prefix, writer);
+    JankMonitor.dump(prefix, writer);
+    Trace.dump(prefix, writer);
+  }
+
 }
@@ -5,11 +5,12 @@ import android.os.Build;
 import android.os.Bundle;
 import android.support.v4.app.FragmentActivity;
 import android.support.v4.app.FragmentTransaction;
-import android.util.Log;
 import android.view.Menu;
 import android.view.MenuItem;
 
 import com.adp.retaintask.R;
+import com.adp.retaintask.util.LifecycleMetrics;
+import com.adp.retaintask.util.Trace;
 
 /**
  * MainActivity starts a UI fragment which will display the screen's UI.
@@ -19,12 +20,10 @@ import com.adp.retaintask.R;
  * default launcher Activity in the <code>AndroidManifest.xml</code> file.
  */
 public class MainActivity extends FragmentActivity {
-  private static final String TAG = MainActivity.class.getSimpleName();
-  private static final boolean DEBUG = true; // Set this to false to disable logs.
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
-    if (DEBUG) Log.i(TAG, "onCreate(Bundle)");
+    LifecycleMetrics.mark(Trace.EXTRA_MAIN_ACTIVITY, Trace.ON_CREATE);
     super.onCreate(savedInstanceState);
     if (savedInstanceState == null) {
       FragmentTransaction ft = getSupportFragmentManager().beginTransaction();
@@ -61,31 +60,31 @@ public class MainActivity extends FragmentActivity {
 
   @Override
   protected void onStart() {
-    if (DEBUG) Log.i(TAG, "onStart()");
+    LifecycleMetrics.mark(Trace.EXTRA_MAIN_ACTIVITY, Trace.ON_START);
     super.onStart();
   }
 
   @Override
   protected void onResume() {
-    if (DEBUG) Log.i(TAG, "onResume()");
+    LifecycleMetrics.mark(Trace.EXTRA_MAIN_ACTIVITY, Trace.ON_RESUME);
     super.onResume();
   }
 
   @Override
   protected void onPause() {
-    if (DEBUG) Log.i(TAG, "onPause()");
+    LifecycleMetrics.mark(Trace.EXTRA_MAIN_ACTIVITY, Trace.ON_PAUSE);
     super.onPause();
   }
 
   @Override
   protected void onStop() {
-    if (DEBUG) Log.i(TAG, "onStop()");
+    LifecycleMetrics.mark(Trace.EXTRA_MAIN_ACTIVITY, Trace.ON_STOP);
     super.onStop();
   }
 
   @Override
   protected void onDestroy() {
-    if (DEBUG) Log.i(TAG, "onDestroy()");
+    LifecycleMetrics.markDestroyed(Trace.EXTRA_MAIN_ACTIVITY, isFinishing());
     super.onDestroy();
   }
 
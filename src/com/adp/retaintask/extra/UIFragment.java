@@ -3,7 +3,6 @@ package com.adp.retaintask.extra;
 import android.os.Bundle;
 import android.support.v4.app.Fragment;
 import android.support.v4.app.FragmentManager;
-import android.util.Log;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.View.OnClickListener;
@@ -14,19 +13,27 @@ import android.widget.TextView;
 import android.widget.Toast;
 
 import com.adp.retaintask.R;
+import com.adp.retaintask.util.LifecycleMetrics;
+import com.adp.retaintask.util.Trace;
 
 /**
  * UIFragment displays the screen's UI and starts a single TaskFragment that
  * will retain itself when configuration changes occur.
  */
 public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
-    private static final String TAG = UIFragment.class.getSimpleName();
-    private static final boolean DEBUG = true; // Set this to false to disable logs.
 
     private static final String KEY_CURRENT_PROGRESS = "current_progress";
     private static final String KEY_PERCENT_PROGRESS = "percent_progress";
     private static final String TAG_TASK_FRAGMENT = "task_fragment";
 
+    // "0%" through "100%", built once so that progress updates don't allocate.
+    private static final String[] PERCENT_LABELS = new String[101];
+    static {
+      for (int i = 0; i < PERCENT_LABELS.length; i++) {
+        PERCENT_LABELS[i] = i + "%";
+      }
+    }
+
     private TaskFragment mTaskFragment;
     private ProgressBar mProgressBar;
     private TextView mPercent;
@@ -34,7 +41,7 @@ public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
 
     @Override
     public View onCreateView(LayoutInflater inflater, ViewGroup container, Bundle savedInstanceState) {
-      if (DEBUG) Log.i(TAG, "onCreateView(LayoutInflater, ViewGroup, Bundle)");
+      LifecycleMetrics.mark(Trace.UI_FRAGMENT, Trace.ON_CREATE_VIEW);
       View view = inflater.inflate(R.layout.main, container, false);
       mProgressBar = (ProgressBar) view.findViewById(R.id.progress_horizontal);
       mPercent = (TextView) view.findViewById(R.id.percent_progress);
@@ -54,7 +61,7 @@ public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
 
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
-      if (DEBUG) Log.i(TAG, "onActivityCreated(Bundle)");
+      LifecycleMetrics.mark(Trace.UI_FRAGMENT, Trace.ON_ACTIVITY_CREATED);
       super.onActivityCreated(savedInstanceState);
 
       // Restore saved state.
@@ -83,7 +90,7 @@ public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
 
     @Override
     public void onSaveInstanceState(Bundle outState) {
-      if (DEBUG) Log.i(TAG, "onSaveInstanceState(Bundle)");
+      LifecycleMetrics.mark(Trace.UI_FRAGMENT, Trace.ON_SAVE_INSTANCE_STATE);
       super.onSaveInstanceState(outState);
       outState.putInt(KEY_CURRENT_PROGRESS, mProgressBar.getProgress());
       outState.putString(KEY_PERCENT_PROGRESS, mPercent.getText().toString());
@@ -94,22 +101,22 @@ public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
     /****************************/
 
     @Override
-    public void onPreExecute() {
-      if (DEBUG) Log.i(TAG, "onPreExecute()");
+    public void onPreExecute(String id) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_PRE_EXECUTE);
       mButton.setText(getString(R.string.cancel));
       Toast.makeText(getActivity(), R.string.task_started_msg, Toast.LENGTH_SHORT).show();
     }
 
     @Override
-    public void onProgressUpdate(int percent) {
-      if (DEBUG) Log.i(TAG, "onProgressUpdate(" + percent + "%)");
+    public void onProgressUpdate(String id, int percent) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_PROGRESS_UPDATE, percent);
       mProgressBar.setProgress(percent * mProgressBar.getMax() / 100);
-      mPercent.setText(percent + "%");
+      mPercent.setText(PERCENT_LABELS[percent]);
     }
 
     @Override
-    public void onCancelled() {
-      if (DEBUG) Log.i(TAG, "onCancelled()");
+    public void onCancelled(String id) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_CANCELLED);
       mButton.setText(getString(R.string.start));
       mProgressBar.setProgress(0);
       mPercent.setText(getString(R.string.zero_percent));
@@ -117,8 +124,26 @@ public class UIFragment extends Fragment implements TaskFragment.TaskCallbacks {
     }
 
     @Override
-    public void onPostExecute() {
-      if (DEBUG) Log.i(TAG, "onPostExecute()");
+    public void onTimedOut(String id) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_TIMED_OUT);
+      mButton.setText(getString(R.string.start));
+      mProgressBar.setProgress(0);
+      mPercent.setText(getString(R.string.zero_percent));
+      Toast.makeText(getActivity(), R.string.task_timed_out_msg, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onFailed(String id) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_FAILED);
+      mButton.setText(getString(R.string.start));
+      mProgressBar.setProgress(0);
+      mPercent.setText(getString(R.string.zero_percent));
+      Toast.makeText(getActivity(), R.string.task_failed_msg, Toast.LENGTH_SHORT).show();
+    }
+
+    @Override
+    public void onPostExecute(String id) {
+      if (Trace.ENABLED) Trace.event(Trace.UI_FRAGMENT, Trace.ON_POST_EXECUTE);
       mButton.setText(getString(R.string.start));
       mProgressBar.setProgress(mProgressBar.getMax());
       mPercent.setText(getString(R.string.one_hundred_percent));
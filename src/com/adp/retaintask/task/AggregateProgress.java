@@ -0,0 +1,124 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * AggregateProgress combines the progress of many weighted subtasks, updated
+ * concurrently from any number of threads, into a single percent. Updates
+ * that don't move the percent take no locks: each subtask's contribution is
+ * swapped atomically, and the running total is spread over cache-line-padded
+ * stripes so that writers on different threads rarely touch the same line.
+ * <p>
+ * Whenever the combined percent rises, it is handed to the
+ * {@link ProgressListener} (on the updating thread), typically a task's
+ * coalescing progress channel. Only those hand-offs are serialized, so the
+ * listener never sees the percent move backwards.
+ */
+public final class AggregateProgress {
+  /** Fixed-point resolution of a subtask's contribution, per unit of weight. */
+  private static final long SCALE = 1 << 16;
+  /** Longs per stripe, so that each stripe sits on its own 64-byte line. */
+  private static final int PAD = 8;
+  private static final int STRIPES = stripeCount();
+
+  /**
+   * Receives the combined percent, from 0 to 100, whenever it rises. Calls
+   * are serialized.
+   */
+  public interface ProgressListener {
+    void onProgress(int percent);
+  }
+
+  private final long[] mWeights;
+  private final long mTotalWeight;
+  private final AtomicLongArray mContributions;
+  private final AtomicLongArray mStripes = new AtomicLongArray(STRIPES * PAD);
+  private final ProgressListener mListener;
+  private final Object mReportLock = new Object();
+  private volatile int mReported = -1; // written under mReportLock
+
+  /**
+   * @param weights the relative weight of each subtask; subtask
+   *          <code>i</code> is identified by its index in this array.
+   */
+  public AggregateProgress(long[] weights, ProgressListener listener) {
+    long total = 0;
+    for (long weight : weights) {
+      if (weight < 0) {
+        throw new IllegalArgumentException("Negative weight: " + weight);
+      }
+      total += weight;
+    }
+    mWeights = weights.clone();
+    mTotalWeight = total;
+    mContributions = new AtomicLongArray(weights.length * PAD);
+    mListener = listener;
+  }
+
+  public int getSubtaskCount() {
+    return mWeights.length;
+  }
+
+  /**
+   * Report that <code>subtask</code> has done <code>done</code> out of
+   * <code>total</code> units of its work. Safe to call from any thread.
+   */
+  public void update(int subtask, long done, long total) {
+    long contribution = total <= 0 ? 0
+        : (long) (mWeights[subtask] * SCALE * Math.min(1.0, (double) done / total));
+    long previous = mContributions.getAndSet(subtask * PAD, contribution);
+    if (contribution != previous) {
+      mStripes.addAndGet(stripe(), contribution - previous);
+      report(getPercent());
+    }
+  }
+
+  /**
+   * Mark <code>subtask</code> as complete.
+   */
+  public void complete(int subtask) {
+    update(subtask, 1, 1);
+  }
+
+  /**
+   * Returns the weighted progress of all subtasks, from 0 to 100.
+   */
+  public int getPercent() {
+    if (mTotalWeight == 0) {
+      return 0;
+    }
+    long sum = 0;
+    for (int i = 0; i < STRIPES; i++) {
+      sum += mStripes.get(i * PAD);
+    }
+    return (int) (sum * 100 / (mTotalWeight * SCALE));
+  }
+
+  private void report(int percent) {
+    // Another writer may have computed a higher percent after us, and handed
+    // it over first.
+    if (mListener == null || percent <= mReported) {
+      return;
+    }
+    // Only taken when the percent has moved, at most ~100 times per run.
+    synchronized (mReportLock) {
+      if (percent > mReported) {
+        mReported = percent;
+        mListener.onProgress(percent);
+      }
+    }
+  }
+
+  private static int stripe() {
+    return (int) (Thread.currentThread().getId() & (STRIPES - 1)) * PAD;
+  }
+
+  private static int stripeCount() {
+    int stripes = 1;
+    while (stripes < 2 * Runtime.getRuntime().availableProcessors()) {
+      stripes <<= 1;
+    }
+    return stripes;
+  }
+
+}
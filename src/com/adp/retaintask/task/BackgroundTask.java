@@ -0,0 +1,713 @@
+package com.adp.retaintask.task;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Message;
+import android.util.Log;
+
+import com.adp.retaintask.util.LatencyHistogram;
+import com.adp.retaintask.util.Trace;
+
+/**
+ * BackgroundTask is a minimal stand-in for {@link android.os.AsyncTask} that
+ * can be executed on any {@link Executor} (including on API levels below
+ * Honeycomb, where <code>AsyncTask.executeOnExecutor()</code> does not exist).
+ * Every task has an ID and its own {@link Status}, and reports its lifecycle
+ * and its result to one or more {@link Listener}s on the main thread.
+ */
+public abstract class BackgroundTask<Result> implements Runnable {
+  private static final String TAG = BackgroundTask.class.getSimpleName();
+  private static final int MSG_FINISH = 1;
+
+  public enum Status {
+    PENDING, RUNNING, CANCELLED, TIMED_OUT, FAILED, FINISHED
+  }
+
+  /**
+   * Receives the task's lifecycle events. All methods are invoked on the main
+   * thread.
+   */
+  public interface Listener {
+    void onPreExecute(BackgroundTask<?> task);
+    void onProgressUpdate(BackgroundTask<?> task, int percent);
+    void onCancelled(BackgroundTask<?> task);
+    /** Called instead of onCancelled() when the task missed its deadline. */
+    void onTimedOut(BackgroundTask<?> task);
+    /** Called when doInBackground() threw; see {@link BackgroundTask#getFailure()}. */
+    void onFailed(BackgroundTask<?> task);
+    void onPostExecute(BackgroundTask<?> task);
+  }
+
+  /**
+   * A {@link Listener} that also receives byte-granular progress from tasks
+   * that report it with {@link BackgroundTask#publishBytes}. Updates are
+   * coalesced the same way as percentages.
+   */
+  public interface TransferListener extends Listener {
+    /**
+     * @param bytesPerSecond the smoothed transfer rate, or -1 if not yet known.
+     * @param etaMillis the estimated time left, or -1 if not yet known.
+     */
+    void onTransferProgress(BackgroundTask<?> task, long bytes, long totalBytes,
+        long bytesPerSecond, long etaMillis);
+  }
+
+  /**
+   * A {@link Listener} that also receives results as the task produces them,
+   * from tasks that report them with {@link BackgroundTask#publishPartialResult}.
+   * Results are batched per frame; every one of them is delivered before
+   * {@link Listener#onPostExecute}.
+   */
+  public interface PartialResultListener extends Listener {
+    void onPartialResults(BackgroundTask<?> task, List<?> items);
+  }
+
+  private static final Listener[] NO_LISTENERS = new Listener[0];
+  private static final AtomicLong sSequence = new AtomicLong();
+
+  /** Time from a cancel() request to the worker returning, in microseconds. */
+  private static final LatencyHistogram sCancelLatency = new LatencyHistogram("us");
+
+  private static final Handler sHandler = new Handler(Looper.getMainLooper()) {
+    @Override
+    public void handleMessage(Message msg) {
+      if (msg.what == MSG_FINISH) {
+        ((BackgroundTask<?>) msg.obj).finish();
+      }
+    }
+  };
+
+  private final String mId;
+  private final CancellationToken mToken = new CancellationToken();
+  private volatile Status mStatus = Status.PENDING;
+  private volatile long mCancelLatencyNanos = -1;
+  private volatile long mRunNanos;
+  private TaskPriority mPriority = TaskPriority.USER_VISIBLE;
+  private TaskClock mClock = TaskClock.SYSTEM;
+  private long mSequence;
+  private Executor mExecutor;
+  private long mTimeoutMillis;
+  private long mExecutedAtNanos;
+  // The deadline clock stops while the task is paused. Only accessed on the
+  // main thread.
+  private long mPausedAtNanos;
+  private long mPausedNanos;
+  private volatile boolean mTimedOut;
+  private volatile Throwable mFailure;
+
+  // Posted for the task's deadline, and removed when it finishes first.
+  private final Runnable mTimeout = new Runnable() {
+    @Override
+    public void run() {
+      if (mStatus == Status.RUNNING && !mToken.isCancelled()) {
+        synchronized (mWorkerLock) {
+          if (mReturned) {
+            // The worker made the deadline; its MSG_FINISH is on the way.
+            return;
+          }
+          mTimedOut = true;
+        }
+        cancel(true);
+      }
+    }
+  };
+
+  // The thread currently running doInBackground(), guarded by mWorkerLock so
+  // that we never interrupt a pool thread after it has moved on to other work.
+  private final Object mWorkerLock = new Object();
+  private Thread mWorker;
+  private boolean mReturned; // guarded by mWorkerLock
+
+  // Set while the task is softly cancelled (see TaskEngine.leave()); the
+  // worker waits at its next safe point until resumed or cancelled.
+  private final Object mPauseLock = new Object();
+  private boolean mPaused; // guarded by mPauseLock
+
+  // Replaced, never modified, so that listeners may come and go while we
+  // dispatch to them. Only accessed on the main thread.
+  private Listener[] mListeners = NO_LISTENERS;
+  private boolean mHasProgress;
+  private int mLastProgress;
+  private Result mResult;
+  private String mEngineKey;
+
+  private final ProgressChannel mProgress = new ProgressChannel(new ProgressChannel.Listener() {
+    @Override
+    public void onProgress(long value) {
+      if (!mToken.isCancelled()) {
+        mHasProgress = true;
+        mLastProgress = (int) value;
+        long start = System.nanoTime();
+        for (Listener listener : mListeners) {
+          listener.onProgressUpdate(BackgroundTask.this, mLastProgress);
+        }
+        TaskMetrics.callbackRan(Trace.ON_PROGRESS_UPDATE, System.nanoTime() - start);
+      }
+    }
+  });
+
+  // Byte progress: the count travels through mBytes, the rest is read from
+  // these fields when it is delivered.
+  private final ThroughputEstimator mThroughput = new ThroughputEstimator();
+  private volatile long mTotalBytes;
+
+  private final ProgressChannel mBytes = new ProgressChannel(new ProgressChannel.Listener() {
+    @Override
+    public void onProgress(long bytes) {
+      if (!mToken.isCancelled()) {
+        long total = mTotalBytes;
+        long rate = mThroughput.getBytesPerSecond();
+        long eta = mThroughput.getEtaMillis();
+        long start = System.nanoTime();
+        for (Listener listener : mListeners) {
+          if (listener instanceof TransferListener) {
+            ((TransferListener) listener).onTransferProgress(BackgroundTask.this, bytes, total,
+                rate, eta);
+          }
+        }
+        TaskMetrics.callbackRan(Trace.ON_TRANSFER_PROGRESS, System.nanoTime() - start);
+      }
+    }
+  });
+
+  private final PartialResultChannel mPartials = new PartialResultChannel(
+      new PartialResultChannel.Listener() {
+        @Override
+        public void onPartialResults(List<Object> items) {
+          if (!mToken.isCancelled()) {
+            long start = System.nanoTime();
+            for (Listener listener : mListeners) {
+              if (listener instanceof PartialResultListener) {
+                ((PartialResultListener) listener).onPartialResults(BackgroundTask.this, items);
+              }
+            }
+            TaskMetrics.callbackRan(Trace.ON_PARTIAL_RESULTS, System.nanoTime() - start);
+          } else {
+            // Don't make a cancelled task wait for results nobody will see.
+            mPartials.clear();
+          }
+        }
+      });
+
+  // Completes the task once its last partial results are out.
+  private final Runnable mComplete = new Runnable() {
+    @Override
+    public void run() {
+      complete();
+    }
+  };
+
+  protected BackgroundTask(String id, Listener listener) {
+    mId = id;
+    mListeners = new Listener[] { listener };
+  }
+
+  public final String getId() {
+    return mId;
+  }
+
+  public final Status getStatus() {
+    return mStatus;
+  }
+
+  /**
+   * Returns the value returned by {@link #doInBackground()}, or null if the
+   * task hasn't finished. Must be called on the main thread.
+   */
+  public final Result getResult() {
+    return mResult;
+  }
+
+  /**
+   * Add a listener. If the task is already running, the listener is brought up
+   * to date right away with {@link Listener#onPreExecute} and the latest
+   * progress. Must be called on the main thread.
+   */
+  public final void addListener(Listener listener) {
+    Listener[] listeners = new Listener[mListeners.length + 1];
+    System.arraycopy(mListeners, 0, listeners, 0, mListeners.length);
+    listeners[mListeners.length] = listener;
+    mListeners = listeners;
+    if (mStatus == Status.RUNNING) {
+      listener.onPreExecute(this);
+      if (mHasProgress) {
+        listener.onProgressUpdate(this, mLastProgress);
+      }
+    }
+  }
+
+  /**
+   * Remove a listener. It won't be notified of anything else, including the
+   * task's outcome. Must be called on the main thread.
+   */
+  public final void removeListener(Listener listener) {
+    for (int i = 0; i < mListeners.length; i++) {
+      if (mListeners[i] == listener) {
+        Listener[] listeners = new Listener[mListeners.length - 1];
+        System.arraycopy(mListeners, 0, listeners, 0, i);
+        System.arraycopy(mListeners, i + 1, listeners, i, listeners.length - i);
+        mListeners = listeners;
+        return;
+      }
+    }
+  }
+
+  public final int getListenerCount() {
+    return mListeners.length;
+  }
+
+  /**
+   * Set how urgent this task is. Must be called before {@link #execute}.
+   */
+  public final void setPriority(TaskPriority priority) {
+    if (mStatus != Status.PENDING) {
+      throw new IllegalStateException("Task " + mId + " has already been executed.");
+    }
+    mPriority = priority;
+  }
+
+  public final TaskPriority getPriority() {
+    return mPriority;
+  }
+
+  /**
+   * Set the clock that paces this task's progress delivery and that its work
+   * should wait on (see {@link #getClock()}). Must be called before
+   * {@link #execute}.
+   */
+  public final void setClock(TaskClock clock) {
+    if (mStatus != Status.PENDING) {
+      throw new IllegalStateException("Task " + mId + " has already been executed.");
+    }
+    mClock = clock;
+    mProgress.setClock(clock);
+    mBytes.setClock(clock);
+  }
+
+  /**
+   * Returns the clock this task runs against. Work in
+   * {@link #doInBackground()} should call its {@link TaskClock#sleep(long)}
+   * rather than sleeping directly, so that it can be run in virtual time.
+   */
+  public final TaskClock getClock() {
+    return mClock;
+  }
+
+  /**
+   * Give the task <code>timeoutMillis</code> milliseconds from {@link #execute}
+   * to finish. If it is still running then, it is cancelled and its listeners
+   * get {@link Listener#onTimedOut} instead of onCancelled(). Time spent
+   * paused by a soft cancel (see {@link TaskEngine#leave}) doesn't count. The
+   * deadline is also carried by {@link #getCancellationToken()}, and so by the
+   * tokens of any child work created after the last pause. Zero (the default)
+   * means no deadline. Must be called before {@link #execute}.
+   */
+  public final void setDeadline(long timeoutMillis) {
+    if (mStatus != Status.PENDING) {
+      throw new IllegalStateException("Task " + mId + " has already been executed.");
+    }
+    mTimeoutMillis = timeoutMillis;
+  }
+
+  /**
+   * Returns the timeout set with {@link #setDeadline(long)}, or 0 if none.
+   */
+  public final long getDeadline() {
+    return mTimeoutMillis;
+  }
+
+  /**
+   * Returns true if the task was cancelled because it missed its deadline.
+   */
+  public final boolean isTimedOut() {
+    return mTimedOut;
+  }
+
+  /**
+   * Returns what {@link #doInBackground()} threw if the task
+   * {@link Status#FAILED failed}, or null.
+   */
+  public final Throwable getFailure() {
+    return mFailure;
+  }
+
+  /**
+   * Returns the order in which the task was executed, relative to other tasks.
+   */
+  final long getSequence() {
+    return mSequence;
+  }
+
+  /**
+   * Deliver progress no more often than every <code>millis</code> milliseconds.
+   * By default progress is delivered at most once per display frame.
+   */
+  public final void setMinProgressInterval(long millis) {
+    mProgress.setMinInterval(millis);
+    mBytes.setMinInterval(millis);
+  }
+
+  /**
+   * Deliver at most <code>maxBatch</code> partial results per frame.
+   */
+  public final void setMaxPartialBatch(int maxBatch) {
+    mPartials.setMaxBatch(maxBatch);
+  }
+
+  /**
+   * Start the task on the given executor. If the executor rejects it, the task
+   * fails. Must be called on the main thread.
+   */
+  public final void execute(Executor executor) {
+    if (mStatus != Status.PENDING) {
+      throw new IllegalStateException("Task " + mId + " has already been executed.");
+    }
+    mStatus = Status.RUNNING;
+    mSequence = sSequence.getAndIncrement();
+    mExecutor = executor;
+    mExecutedAtNanos = System.nanoTime();
+    if (mTimeoutMillis > 0) {
+      mToken.setDeadlineNanos(mExecutedAtNanos + mTimeoutMillis * 1000000);
+      sHandler.postDelayed(mTimeout, mTimeoutMillis);
+    }
+    TaskMetrics.taskStarted();
+    long start = System.nanoTime();
+    for (Listener listener : mListeners) {
+      listener.onPreExecute(this);
+    }
+    TaskMetrics.callbackRan(Trace.ON_PRE_EXECUTE, System.nanoTime() - start);
+    try {
+      executor.execute(this);
+    } catch (RejectedExecutionException e) {
+      // The worker will never run, so finish as a failure in its place (still
+      // asynchronously, like any other outcome).
+      Log.w(TAG, "Task " + mId + " was rejected", e);
+      synchronized (mWorkerLock) {
+        mReturned = true;
+      }
+      mFailure = e;
+      sHandler.obtainMessage(MSG_FINISH, this).sendToTarget();
+    }
+  }
+
+  /**
+   * Request that the task stop. The worker is expected to poll
+   * {@link #isCancelled()}; {@link Listener#onCancelled} will be called once it
+   * actually returns.
+   */
+  public final void cancel() {
+    cancel(false);
+  }
+
+  /**
+   * Request that the task stop. If <code>mayInterruptIfRunning</code> is true,
+   * the worker thread is also interrupted, which wakes it up from
+   * {@link Thread#sleep}, {@link Object#wait} and interruptible I/O right away
+   * instead of at its next {@link #isCancelled()} check. Child work that was
+   * handed a token from {@link #getCancellationToken()} is cancelled as well.
+   */
+  public final void cancel(boolean mayInterruptIfRunning) {
+    mToken.cancel();
+    synchronized (mPauseLock) {
+      // Let a paused worker notice.
+      mPauseLock.notifyAll();
+    }
+    if (mayInterruptIfRunning) {
+      synchronized (mWorkerLock) {
+        if (mWorker != null) {
+          mWorker.interrupt();
+        }
+      }
+    }
+  }
+
+  public final boolean isCancelled() {
+    return mToken.isCancelled();
+  }
+
+  /**
+   * Ask the worker to wait at its next safe point until {@link #resume()}d,
+   * and stop the deadline clock and give up any urgent slot on a
+   * {@link PriorityTaskExecutor} meanwhile. Must be called on the main thread.
+   */
+  final void pause() {
+    synchronized (mPauseLock) {
+      if (mPaused) {
+        return;
+      }
+      mPaused = true;
+    }
+    if (mExecutor instanceof PriorityTaskExecutor) {
+      ((PriorityTaskExecutor) mExecutor).releaseUrgent(this);
+    }
+    if (mTimeoutMillis > 0) {
+      sHandler.removeCallbacks(mTimeout);
+      mPausedAtNanos = System.nanoTime();
+    }
+  }
+
+  /**
+   * Let a paused worker carry on, urgent again if it was, with its deadline
+   * pushed back by however long it was paused. Must be called on the main
+   * thread.
+   */
+  final void resume() {
+    synchronized (mPauseLock) {
+      if (!mPaused) {
+        return;
+      }
+      mPaused = false;
+      mPauseLock.notifyAll();
+    }
+    if (mExecutor instanceof PriorityTaskExecutor) {
+      ((PriorityTaskExecutor) mExecutor).reclaimUrgent(this);
+    }
+    if (mTimeoutMillis > 0 && mStatus == Status.RUNNING) {
+      mPausedNanos += System.nanoTime() - mPausedAtNanos;
+      long deadlineNanos = mExecutedAtNanos + mPausedNanos + mTimeoutMillis * 1000000;
+      mToken.setDeadlineNanos(deadlineNanos);
+      long remainingMillis = (deadlineNanos - System.nanoTime()) / 1000000;
+      sHandler.postDelayed(mTimeout, Math.max(0, remainingMillis));
+    }
+  }
+
+  public final boolean isPaused() {
+    synchronized (mPauseLock) {
+      return mPaused;
+    }
+  }
+
+  /**
+   * Returns the token that is cancelled when this task is. Pass
+   * {@link CancellationToken#newChild()} to any work the task hands off.
+   */
+  public final CancellationToken getCancellationToken() {
+    return mToken;
+  }
+
+  /**
+   * Returns how long the worker took to stop after cancellation was requested,
+   * in nanoseconds, or -1 if the task was not cancelled (or hasn't stopped).
+   */
+  public final long getCancelLatencyNanos() {
+    return mCancelLatencyNanos;
+  }
+
+  /**
+   * Returns the cancellation latency of every task cancelled so far.
+   */
+  public static LatencyHistogram getCancelLatency() {
+    return sCancelLatency;
+  }
+
+  @Override
+  public final void run() {
+    long start = System.nanoTime();
+    synchronized (mWorkerLock) {
+      mWorker = Thread.currentThread();
+    }
+    try {
+      if (!mToken.isCancelled()) {
+        mResult = doInBackground();
+      }
+    } catch (RuntimeException e) {
+      // A CancellationException from CancellationToken.throwIfCancelled(), or
+      // anything else thrown on the way out, just unwinds a cancelled worker.
+      if (!mToken.isCancelled()) {
+        Log.w(TAG, "Task " + mId + " failed", e);
+        mFailure = e;
+      }
+    } finally {
+      synchronized (mWorkerLock) {
+        mWorker = null;
+        mReturned = true;
+        // Don't leak an interrupt meant for us into the pool's next task.
+        Thread.interrupted();
+      }
+      mRunNanos = System.nanoTime() - start;
+      if (mToken.isCancelled()) {
+        mCancelLatencyNanos = System.nanoTime() - mToken.getRequestedAtNanos();
+        sCancelLatency.record(mCancelLatencyNanos / 1000);
+      }
+      sHandler.obtainMessage(MSG_FINISH, this).sendToTarget();
+    }
+  }
+
+  /**
+   * Performs the task's work on a background thread and returns its result.
+   */
+  protected abstract Result doInBackground();
+
+  /**
+   * Called on the worker thread when it reaches a safe point while the task is
+   * softly cancelled (see {@link TaskEngine#leave}), before it waits to be
+   * resumed. The task may be cancelled for good, or its process killed, without
+   * ever being resumed, so anything that would bring the work back on a later
+   * launch, such as a checkpoint journal, should be dropped here.
+   */
+  protected void onPaused() {
+  }
+
+  /**
+   * A safe point for long tasks to call from {@link #doInBackground()}. Blocks
+   * while the task is paused by a soft cancel, and, for
+   * {@link TaskPriority#BACKGROUND} tasks, while user-visible work is waiting
+   * on a {@link PriorityTaskExecutor}. Otherwise returns right away.
+   *
+   * @return false if the task was cancelled, in which case it should stop.
+   */
+  protected final boolean pauseIfPreempted() {
+    try {
+      if (mPriority == TaskPriority.BACKGROUND && mExecutor instanceof PriorityTaskExecutor) {
+        ((PriorityTaskExecutor) mExecutor).park();
+      }
+      boolean paused;
+      synchronized (mPauseLock) {
+        paused = mPaused && !isCancelled();
+      }
+      if (paused) {
+        // Outside the lock, since the task may do I/O here.
+        onPaused();
+        synchronized (mPauseLock) {
+          while (mPaused && !isCancelled()) {
+            mPauseLock.wait();
+          }
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      return false;
+    }
+    return !isCancelled();
+  }
+
+  /**
+   * Returns an {@link AggregateProgress} over subtasks with the given weights,
+   * whose combined percent is published as this task's progress. Useful when
+   * {@link #doInBackground()} fans its work out to other threads.
+   */
+  protected final AggregateProgress newAggregateProgress(long[] weights) {
+    return new AggregateProgress(weights, new AggregateProgress.ProgressListener() {
+      @Override
+      public void onProgress(int percent) {
+        publishProgress(percent);
+      }
+    });
+  }
+
+  /**
+   * Posts a progress update to the main thread. May be called from
+   * {@link #doInBackground()} as often as the task likes: updates are coalesced
+   * so that only the newest value is delivered, at most once per frame.
+   * Values outside 0..100 are clamped.
+   */
+  protected final void publishProgress(int percent) {
+    mProgress.publish(Math.max(0, Math.min(100, percent)));
+  }
+
+  /**
+   * Posts byte-granular progress to the main thread, along with the
+   * corresponding percent. The transfer rate and time left are estimated here,
+   * on the calling thread. Like {@link #publishProgress(int)}, this may be
+   * called as often as the task likes.
+   */
+  protected final void publishBytes(long bytes, long totalBytes) {
+    mTotalBytes = totalBytes;
+    mThroughput.update(bytes, totalBytes, mClock.uptimeMillis());
+    mBytes.publish(bytes);
+    if (totalBytes > 0) {
+      // A transfer may run past its announced size.
+      publishProgress((int) Math.min(100, bytes * 100 / totalBytes));
+    }
+  }
+
+  /**
+   * Posts one of the task's results to the main thread ahead of completion.
+   * Safe to call from any thread; results are delivered in the order they are
+   * published.
+   */
+  protected final void publishPartialResult(Object item) {
+    mPartials.publish(item);
+  }
+
+  void setEngineKey(String key) {
+    mEngineKey = key;
+  }
+
+  /**
+   * Returns the key the task was executed under by {@link TaskEngine}, if any.
+   */
+  final String getEngineKey() {
+    return mEngineKey;
+  }
+
+  /**
+   * Called on the main thread once the worker has returned.
+   */
+  private void finish() {
+    sHandler.removeCallbacks(mTimeout);
+    mProgress.close();
+    mBytes.close();
+    if (!mToken.isCancelled() && mFailure == null) {
+      // Results still waiting for a frame must arrive before the outcome, and
+      // no faster than they would have while the worker was running.
+      mPartials.drain(mComplete);
+    } else {
+      complete();
+    }
+  }
+
+  private void complete() {
+    mPartials.close();
+    if (mToken.isCancelled()) {
+      mStatus = mTimedOut ? Status.TIMED_OUT : Status.CANCELLED;
+      mResult = null;
+    } else if (mFailure != null) {
+      mStatus = Status.FAILED;
+      mResult = null;
+    } else {
+      mStatus = Status.FINISHED;
+    }
+    if (mEngineKey != null) {
+      TaskEngine.onFinished(mEngineKey, this);
+    }
+    TaskMetrics.taskEnded(mStatus, mRunNanos);
+    if (mTimeoutMillis > 0
+        && (mStatus == Status.FINISHED || mStatus == Status.TIMED_OUT)) {
+      // Cancelled and failed runs say nothing about whether the deadline fits
+      // the work, so they would only skew the histogram.
+      long elapsedMillis = (System.nanoTime() - mExecutedAtNanos - mPausedNanos) / 1000000;
+      TaskMetrics.deadlineUsed(getClass().getName(), elapsedMillis * 100 / mTimeoutMillis);
+    }
+    long start = System.nanoTime();
+    int event;
+    if (mStatus == Status.CANCELLED) {
+      event = Trace.ON_CANCELLED;
+      for (Listener listener : mListeners) {
+        listener.onCancelled(this);
+      }
+    } else if (mStatus == Status.TIMED_OUT) {
+      event = Trace.ON_TIMED_OUT;
+      for (Listener listener : mListeners) {
+        listener.onTimedOut(this);
+      }
+    } else if (mStatus == Status.FAILED) {
+      event = Trace.ON_FAILED;
+      for (Listener listener : mListeners) {
+        listener.onFailed(this);
+      }
+    } else {
+      event = Trace.ON_POST_EXECUTE;
+      for (Listener listener : mListeners) {
+        listener.onPostExecute(this);
+      }
+    }
+    TaskMetrics.callbackRan(event, System.nanoTime() - start);
+  }
+
+}
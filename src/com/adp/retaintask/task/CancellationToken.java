@@ -0,0 +1,134 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * CancellationToken carries a cancellation request from the main thread to a
+ * task's worker and to any child work the worker hands off. Unlike polling a
+ * flag between steps, listeners registered with
+ * {@link #addOnCancelListener(OnCancelListener)} are notified the moment
+ * cancellation is requested, so they can interrupt threads or close streams
+ * that the worker is blocked on.
+ */
+public final class CancellationToken {
+
+  /**
+   * Notified (on the thread that called {@link CancellationToken#cancel()})
+   * when cancellation is requested.
+   */
+  public interface OnCancelListener {
+    void onCancel();
+  }
+
+  private final CopyOnWriteArrayList<OnCancelListener> mListeners =
+      new CopyOnWriteArrayList<OnCancelListener>();
+  private volatile boolean mCancelled;
+  private volatile long mRequestedAtNanos;
+  private volatile long mDeadlineNanos;
+
+  /**
+   * Request cancellation. Only the first call has any effect.
+   */
+  public void cancel() {
+    synchronized (this) {
+      if (mCancelled) {
+        return;
+      }
+      mRequestedAtNanos = System.nanoTime();
+      mCancelled = true;
+    }
+    for (OnCancelListener listener : mListeners) {
+      // Whoever removes a listener notifies it, so each is notified once.
+      if (mListeners.remove(listener)) {
+        listener.onCancel();
+      }
+    }
+  }
+
+  public boolean isCancelled() {
+    return mCancelled;
+  }
+
+  /**
+   * Throws a {@link CancellationException} if cancellation was requested.
+   * Useful at safe points deep inside child work.
+   */
+  public void throwIfCancelled() {
+    if (mCancelled) {
+      throw new CancellationException();
+    }
+  }
+
+  /**
+   * Returns the {@link System#nanoTime()} at which cancellation was requested,
+   * or 0 if it hasn't been.
+   */
+  public long getRequestedAtNanos() {
+    return mRequestedAtNanos;
+  }
+
+  /**
+   * Record the {@link System#nanoTime()} by which the work this token governs is
+   * due, so that child work can size its own timeouts to fit. Tokens created
+   * with {@link #newChild()} afterwards inherit it. The token does not enforce
+   * the deadline itself; whoever set it cancels the token when it passes.
+   */
+  public void setDeadlineNanos(long deadlineNanos) {
+    mDeadlineNanos = deadlineNanos;
+  }
+
+  /**
+   * Returns the deadline set with {@link #setDeadlineNanos(long)}, or 0 if
+   * there is none.
+   */
+  public long getDeadlineNanos() {
+    return mDeadlineNanos;
+  }
+
+  /**
+   * Returns how many milliseconds are left until the deadline (0 once it has
+   * passed), or {@link Long#MAX_VALUE} if there is none. Blocking child work
+   * should wait no longer than this.
+   */
+  public long getRemainingMillis() {
+    long deadline = mDeadlineNanos;
+    if (deadline == 0) {
+      return Long.MAX_VALUE;
+    }
+    return Math.max(0, (deadline - System.nanoTime()) / 1000000);
+  }
+
+  /**
+   * Register a listener. If cancellation was already requested, the listener is
+   * notified immediately on the calling thread.
+   */
+  public void addOnCancelListener(OnCancelListener listener) {
+    mListeners.add(listener);
+    if (mCancelled && mListeners.remove(listener)) {
+      listener.onCancel();
+    }
+  }
+
+  public void removeOnCancelListener(OnCancelListener listener) {
+    mListeners.remove(listener);
+  }
+
+  /**
+   * Returns a token that is cancelled whenever this one is, and has the same
+   * deadline, for handing to child work. Cancelling the child does not affect
+   * this token.
+   */
+  public CancellationToken newChild() {
+    final CancellationToken child = new CancellationToken();
+    child.mDeadlineNanos = mDeadlineNanos;
+    addOnCancelListener(new OnCancelListener() {
+      @Override
+      public void onCancel() {
+        child.cancel();
+      }
+    });
+    return child;
+  }
+
+}
@@ -0,0 +1,245 @@
+package com.adp.retaintask.task;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
+import java.net.URLEncoder;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.util.Log;
+
+/**
+ * CheckpointJournal records how far a task has progressed in an append-only
+ * file, so that the task can pick up where it left off after the process is
+ * killed. Checkpoints are buffered and only forced to disk every
+ * {@link #BATCH_SIZE} records or {@link #BATCH_INTERVAL_MILLIS}, whichever
+ * comes first, so the disk is not hit on every tick.
+ * <p>
+ * Every run of a task keeps a journal of its own, so a run that is cancelled
+ * and replaced under the same ID can neither remove the new run's journal nor
+ * hand it a stale checkpoint. A run restarted after its process was killed
+ * {@link #takeOver takes over} the interrupted run's last checkpoint instead.
+ * <p>
+ * Each record is a single 8-byte position. A record torn by a crash is simply
+ * ignored when the journal is read back. Write errors are logged and disable
+ * the journal, since losing checkpoints only costs repeated work later. A
+ * journal without a directory is disabled from the start. A journal is used
+ * by one worker thread at a time and must not be touched on the main thread.
+ */
+public final class CheckpointJournal {
+  private static final String TAG = CheckpointJournal.class.getSimpleName();
+  private static final String SUFFIX = ".journal";
+  // Separates the task ID from the run in a journal's name. URL-encoding never
+  // produces it, so IDs can't contain it.
+  private static final char RUN_SEPARATOR = '~';
+  private static final AtomicInteger sRuns = new AtomicInteger();
+  private static final int RECORD_SIZE = 8;
+
+  public static final int BATCH_SIZE = 10;
+  public static final long BATCH_INTERVAL_MILLIS = 1000;
+
+  private final File mFile;
+  private final TaskClock mClock;
+  private FileOutputStream mFileStream;
+  private DataOutputStream mOut;
+  private int mPending;
+  private long mLastSyncTime;
+  private boolean mFailed;
+
+  public CheckpointJournal(File dir, String id) {
+    this(dir, id, TaskClock.SYSTEM);
+  }
+
+  /**
+   * Start a new run's journal for the task with the given ID.
+   *
+   * @param dir where the journal is kept, or null to keep no checkpoints.
+   * @param clock the clock that {@link #BATCH_INTERVAL_MILLIS} is measured
+   *          against.
+   */
+  public CheckpointJournal(File dir, String id, TaskClock clock) {
+    String run = System.currentTimeMillis() + "-" + sRuns.incrementAndGet();
+    mFile = dir != null ? new File(dir, encode(id) + RUN_SEPARATOR + run + SUFFIX) : null;
+    mClock = clock;
+    mFailed = dir == null;
+  }
+
+  /**
+   * Returns the journals in the given directory, i.e. those of runs that were
+   * interrupted before they could finish (or that are still going). Lists the
+   * directory, so don't call this on the main thread.
+   */
+  public static List<File> list(File dir) {
+    List<File> journals = new ArrayList<File>();
+    String[] names = dir.list();
+    if (names != null) {
+      for (String name : names) {
+        if (name.endsWith(SUFFIX)) {
+          journals.add(new File(dir, name));
+        }
+      }
+    }
+    return journals;
+  }
+
+  /**
+   * Returns the ID of the task that the given journal belongs to.
+   */
+  public static String idOf(File journal) {
+    String name = journal.getName();
+    int end = name.lastIndexOf(RUN_SEPARATOR);
+    return decode(name.substring(0, end >= 0 ? end : name.length() - SUFFIX.length()));
+  }
+
+  /**
+   * Carry on from an interrupted run's journal, found by {@link #list}: its
+   * last checkpoint is made durable in this journal, and then the old one is
+   * removed. Returns that checkpoint, or 0 if there is none (e.g. because the
+   * run it belonged to was cancelled and removed it in the meantime).
+   */
+  public long takeOver(File journal) {
+    long position = readLast(journal);
+    if (position > 0) {
+      append(position);
+      try {
+        sync();
+      } catch (IOException e) {
+        Log.w(TAG, "Unable to sync " + mFile, e);
+      }
+      if (mOut == null || mPending > 0) {
+        // Not durable here, so keep the old journal, which still has it.
+        return position;
+      }
+    }
+    journal.delete();
+    return position;
+  }
+
+  /**
+   * Returns the last durable checkpoint in the given journal, or 0 if there is
+   * none.
+   */
+  private static long readLast(File journal) {
+    long records = journal.length() / RECORD_SIZE;
+    if (records == 0) {
+      return 0;
+    }
+    DataInputStream in = null;
+    try {
+      in = new DataInputStream(new FileInputStream(journal));
+      long skip = (records - 1) * RECORD_SIZE;
+      while (skip > 0) {
+        skip -= in.skip(skip);
+      }
+      return in.readLong();
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to read " + journal, e);
+      return 0;
+    } finally {
+      closeQuietly(in);
+    }
+  }
+
+  /**
+   * Append a checkpoint. It becomes durable with the next batch.
+   */
+  public void append(long position) {
+    if (mFailed) {
+      return;
+    }
+    try {
+      if (mOut == null) {
+        mFile.getParentFile().mkdirs();
+        mFileStream = new FileOutputStream(mFile, true);
+        mOut = new DataOutputStream(new BufferedOutputStream(mFileStream));
+        mLastSyncTime = mClock.uptimeMillis();
+      }
+      mOut.writeLong(position);
+      mPending++;
+      if (mPending >= BATCH_SIZE
+          || mClock.uptimeMillis() - mLastSyncTime >= BATCH_INTERVAL_MILLIS) {
+        sync();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to write " + mFile + ", checkpointing disabled", e);
+      mFailed = true;
+      closeQuietly(mOut);
+      mOut = null;
+    }
+  }
+
+  /**
+   * Force every appended checkpoint to disk.
+   */
+  public void sync() throws IOException {
+    if (mOut != null && mPending > 0) {
+      mOut.flush();
+      mFileStream.getFD().sync();
+      mPending = 0;
+      mLastSyncTime = mClock.uptimeMillis();
+    }
+  }
+
+  /**
+   * Sync and close the journal, keeping it around for the next launch.
+   */
+  public void close() {
+    try {
+      sync();
+    } catch (IOException e) {
+      Log.w(TAG, "Unable to sync " + mFile, e);
+    }
+    closeQuietly(mOut);
+    mOut = null;
+    mFileStream = null;
+  }
+
+  /**
+   * Close and remove the journal once the task no longer needs resuming. A
+   * later {@link #append} starts it afresh.
+   */
+  public void delete() {
+    closeQuietly(mOut);
+    mOut = null;
+    mFileStream = null;
+    mPending = 0;
+    if (mFile != null) {
+      mFile.delete();
+    }
+  }
+
+  private static void closeQuietly(Closeable closeable) {
+    if (closeable != null) {
+      try {
+        closeable.close();
+      } catch (IOException ignore) {
+      }
+    }
+  }
+
+  private static String encode(String id) {
+    try {
+      return URLEncoder.encode(id, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static String decode(String name) {
+    try {
+      return URLDecoder.decode(name, "UTF-8");
+    } catch (UnsupportedEncodingException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.adp.retaintask.task;
+
+import java.io.File;
+
+import com.adp.retaintask.util.Trace;
+
+/**
+ * A dummy task that performs some (dumb) background work: 100 steps of 100ms
+ * each, reported as byte progress and checkpointed so that a run killed with
+ * its process can be resumed.
+ * <p>
+ * The task may be shared with other fragments through {@link TaskEngine}, and
+ * outlive the fragment that started it, so it doesn't hold on to that
+ * fragment; its progress and results are proxied back to the host by
+ * whichever fragments are listening.
+ */
+public class DummyTask extends BackgroundTask<int[]> {
+  /** How many steps the work takes. */
+  public static final int STEPS = 100;
+  /** How many bytes each step pretends to transfer. */
+  private static final long STEP_BYTES = 64 * 1024;
+
+  private final File mJournalDir;
+  private final int mTraceSource;
+  private File mInterruptedJournal;
+  // Only accessed on the worker thread.
+  private CheckpointJournal mJournal;
+
+  /**
+   * @param journalDir where the task keeps its checkpoint journal, or null
+   *          to run without one.
+   * @param traceSource the {@link Trace} source the task's steps are logged
+   *          under.
+   */
+  public DummyTask(String id, Listener listener, File journalDir, int traceSource) {
+    super(id, listener);
+    mJournalDir = journalDir;
+    mTraceSource = traceSource;
+  }
+
+  /**
+   * Carry on from the checkpoint in <code>journal</code>, left behind by a run
+   * that a previous process was killed in the middle of (see
+   * {@link CheckpointJournal#list}), rather than starting from scratch. Must be
+   * called before {@link #execute}.
+   */
+  public void resumeFrom(File journal) {
+    mInterruptedJournal = journal;
+  }
+
+  /**
+   * Note that we do NOT call the callback object's methods directly from the
+   * background thread, as this could result in a race condition.
+   */
+  @Override
+  protected int[] doInBackground() {
+    // This run's own journal, so that nothing another run of this task does
+    // with its journal can affect ours.
+    CheckpointJournal journal = new CheckpointJournal(mJournalDir, getId(), getClock());
+    mJournal = journal;
+    // Only the returned result refers to this, so the host's cache decides how
+    // long it is kept.
+    int[] result = new int[STEPS];
+    try {
+      // Pick up from the last checkpoint if a previous process was killed
+      // while running this task.
+      int start = mInterruptedJournal != null
+          ? (int) journal.takeOver(mInterruptedJournal) : 0;
+      // Steps before the checkpoint are cheap to redo; it's the waiting that
+      // we don't want to repeat.
+      for (int i = 0; i < start; i++) {
+        result[i] = i * i;
+      }
+      // Each step is a safe point at which a background-priority run yields
+      // to user-visible work and a softly cancelled run waits to be resumed;
+      // pauseIfPreempted() also checks isCancelled().
+      for (int i = start; i < STEPS && pauseIfPreempted(); i++) {
+        if (Trace.ENABLED) Trace.event(mTraceSource, Trace.PUBLISH_PROGRESS, i);
+        try {
+          // Unlike SystemClock.sleep(), this wakes up as soon as cancel()
+          // interrupts us.
+          getClock().sleep(100);
+        } catch (InterruptedException e) {
+          break;
+        }
+        result[i] = i * i;
+        publishBytes((i + 1) * STEP_BYTES, STEPS * STEP_BYTES);
+        journal.append(i + 1);
+      }
+      // Finished or cancelled: either way there is nothing left to resume.
+      journal.delete();
+    } finally {
+      journal.close();
+    }
+    return result;
+  }
+
+  /**
+   * A softly cancelled run must not come back on the next launch, so drop its
+   * checkpoints. If it is resumed instead, the next append starts the journal
+   * afresh.
+   */
+  @Override
+  protected void onPaused() {
+    mJournal.delete();
+  }
+
+}
@@ -0,0 +1,140 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.view.Choreographer;
+
+import com.adp.retaintask.util.LatencyHistogram;
+
+/**
+ * FrameScheduler runs a target {@link Runnable} on the main thread at most once
+ * per display frame, no matter how many times (or from how many threads)
+ * {@link #schedule()} is called in between. On Jelly Bean and above delivery is
+ * aligned to vsync with {@link Choreographer}; older releases fall back to a
+ * fixed frame-length delay on the main {@link Handler}.
+ * <p>
+ * Each dispatch also measures how late it ran compared to when it was due,
+ * which is how long it sat behind other work in the main thread's queue.
+ */
+public final class FrameScheduler {
+  private static final long FALLBACK_FRAME_MILLIS = 16;
+  private static final boolean HAS_CHOREOGRAPHER =
+      Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN;
+  private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+  /** How late dispatches ran across all schedulers, in milliseconds. */
+  private static final LatencyHistogram sQueueDelay = new LatencyHistogram("ms");
+
+  private final Runnable mTarget;
+  private final AtomicBoolean mScheduled = new AtomicBoolean();
+  private volatile long mDueTime;
+  private long mLastDelayMillis; // main thread only
+
+  /** Runs on the main thread and hands the target over to the next frame. */
+  private final Runnable mPostFrame;
+
+  /** Runs the target; invoked once the frame (or fallback delay) arrives. */
+  private final Runnable mDispatch = new Runnable() {
+    @Override
+    public void run() {
+      mLastDelayMillis = Math.max(0, SystemClock.uptimeMillis() - mDueTime);
+      sQueueDelay.record(mLastDelayMillis);
+      mScheduled.set(false);
+      mTarget.run();
+    }
+  };
+
+  public FrameScheduler(Runnable target) {
+    mTarget = target;
+    mPostFrame = HAS_CHOREOGRAPHER ? new VsyncPoster(mDispatch) : null;
+  }
+
+  /**
+   * Run the target on the next frame. Calls made while a frame is already
+   * pending are collapsed into that frame.
+   */
+  public void schedule() {
+    schedule(0);
+  }
+
+  /**
+   * Run the target on the first frame after <code>delayMillis</code> have
+   * elapsed, unless a frame is already pending.
+   */
+  public void schedule(long delayMillis) {
+    if (!mScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    // With vsync, the frame after the delay arrives within one frame length.
+    mDueTime = SystemClock.uptimeMillis() + Math.max(delayMillis, FALLBACK_FRAME_MILLIS);
+    if (mPostFrame != null) {
+      if (delayMillis <= 0 && Looper.myLooper() == Looper.getMainLooper()) {
+        mPostFrame.run();
+      } else {
+        sHandler.postDelayed(mPostFrame, delayMillis);
+      }
+    } else {
+      sHandler.postDelayed(mDispatch, Math.max(delayMillis, FALLBACK_FRAME_MILLIS));
+    }
+  }
+
+  /**
+   * Returns how late the most recent dispatch ran, in milliseconds. Must be
+   * called on the main thread, typically from the target itself.
+   */
+  public long getLastDelayMillis() {
+    return mLastDelayMillis;
+  }
+
+  /**
+   * Returns how late dispatches have run, across every scheduler.
+   */
+  public static LatencyHistogram getQueueDelay() {
+    return sQueueDelay;
+  }
+
+  /**
+   * Cancel a pending frame, if any. Must be called on the main thread.
+   */
+  public void cancel() {
+    sHandler.removeCallbacks(mDispatch);
+    if (mPostFrame != null) {
+      sHandler.removeCallbacks(mPostFrame);
+      ((VsyncPoster) mPostFrame).cancel();
+    }
+    mScheduled.set(false);
+  }
+
+  /**
+   * Kept in its own class so that {@link Choreographer} is never loaded on
+   * releases that don't have it.
+   */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private static final class VsyncPoster implements Runnable, Choreographer.FrameCallback {
+    private final Runnable mDispatch;
+
+    VsyncPoster(Runnable dispatch) {
+      mDispatch = dispatch;
+    }
+
+    @Override
+    public void run() {
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      mDispatch.run();
+    }
+
+    void cancel() {
+      Choreographer.getInstance().removeFrameCallback(this);
+    }
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * ParallelLoop runs the independent iterations of a loop on several threads.
+ * The index range is cut into chunks that workers claim one at a time from a
+ * shared counter, so a worker that finishes early simply takes more chunks and
+ * a slow chunk never holds up the rest (the effect work stealing has in a
+ * fork/join pool, which isn't available before Lollipop). The calling thread
+ * works on chunks too, rather than idling while it waits.
+ * <p>
+ * Progress counts finished iterations, whatever their order, and is only ever
+ * reported moving forward.
+ */
+public final class ParallelLoop {
+
+  /**
+   * The loop's body, invoked once per index on one of the worker threads.
+   */
+  public interface Body {
+    void run(int index) throws Exception;
+  }
+
+  /**
+   * Receives overall progress, from 0 to 100, on the worker threads. Calls are
+   * serialized and each percent is higher than the last.
+   */
+  public interface ProgressListener {
+    void onProgress(int percent);
+  }
+
+  private final int mFrom;
+  private final int mTo;
+  private final int mChunkSize;
+  private final Body mBody;
+  private final AtomicInteger mNext;
+  private final AtomicInteger mDone = new AtomicInteger();
+  private final AtomicReference<Throwable> mFailure = new AtomicReference<Throwable>();
+  private final Object mProgressLock = new Object();
+  private volatile int mReported = -1; // written under mProgressLock
+
+  private ParallelLoop(int from, int to, int chunkSize, Body body) {
+    mFrom = from;
+    mTo = to;
+    mChunkSize = chunkSize;
+    mBody = body;
+    mNext = new AtomicInteger(from);
+  }
+
+  /**
+   * Run <code>body</code> for every index in [<code>from</code>,
+   * <code>to</code>) on the calling thread plus up to
+   * <code>parallelism - 1</code> threads of <code>executor</code>, and return
+   * once every index is done. Workers check <code>token</code> before every
+   * index, and helper threads are interrupted when it is cancelled, so
+   * cancellation takes effect within one iteration. Either way, no helper is
+   * still running <code>body</code> once this returns.
+   *
+   * @throws CancellationException if <code>token</code> is cancelled.
+   * @throws ExecutionException if the body throws; the remaining work is
+   *           abandoned.
+   * @throws InterruptedException if the calling thread is interrupted, or a
+   *           body running on it is.
+   */
+  public static void run(int from, int to, int chunkSize, int parallelism, Executor executor,
+      CancellationToken token, ProgressListener listener, Body body)
+      throws InterruptedException, ExecutionException {
+    if (chunkSize < 1) {
+      throw new IllegalArgumentException("Chunk size must be at least 1: " + chunkSize);
+    }
+    if (to <= from) {
+      return;
+    }
+    final ParallelLoop loop = new ParallelLoop(from, to, chunkSize, body);
+    final CancellationToken workerToken = token.newChild();
+    final ProgressListener progress = listener;
+    int chunks = (to - from + chunkSize - 1) / chunkSize;
+    int helpers = Math.max(0, Math.min(parallelism, chunks) - 1);
+    final WorkerGroup group = new WorkerGroup(helpers);
+    workerToken.addOnCancelListener(group);
+    for (int i = 0; i < helpers; i++) {
+      executor.execute(new Runnable() {
+        @Override
+        public void run() {
+          group.enter();
+          try {
+            loop.work(workerToken, progress);
+          } finally {
+            group.exit();
+          }
+        }
+      });
+    }
+    try {
+      loop.work(workerToken, progress);
+      group.await();
+    } finally {
+      // Stops the helpers early if we are bailing out, and waits until they
+      // have, so that nothing touches the body's results after we return.
+      workerToken.cancel();
+      group.awaitUninterruptibly();
+    }
+    if (loop.mFailure.get() != null) {
+      throw new ExecutionException(loop.mFailure.get());
+    }
+    token.throwIfCancelled();
+  }
+
+  private void work(CancellationToken token, ProgressListener listener) {
+    int start;
+    while (!token.isCancelled() && (start = mNext.getAndAdd(mChunkSize)) < mTo) {
+      int end = Math.min(mTo, start + mChunkSize);
+      for (int i = start; i < end; i++) {
+        if (token.isCancelled()) {
+          return;
+        }
+        try {
+          mBody.run(i);
+        } catch (InterruptedException e) {
+          // Treat it as a cancellation, and keep the interrupt for our caller.
+          Thread.currentThread().interrupt();
+          token.cancel();
+          return;
+        } catch (Throwable t) {
+          mFailure.compareAndSet(null, t);
+          token.cancel();
+          return;
+        }
+      }
+      reportProgress(mDone.addAndGet(end - start), listener);
+    }
+  }
+
+  private void reportProgress(int done, ProgressListener listener) {
+    int percent = (int) ((long) done * 100 / (mTo - mFrom));
+    if (listener == null || percent <= mReported) {
+      return;
+    }
+    // Only taken when the percent has moved, at most ~100 times per loop.
+    synchronized (mProgressLock) {
+      if (percent > mReported) {
+        mReported = percent;
+        listener.onProgress(percent);
+      }
+    }
+  }
+
+}
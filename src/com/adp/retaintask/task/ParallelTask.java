@@ -0,0 +1,55 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.ExecutionException;
+
+import com.adp.retaintask.util.Trace;
+
+/**
+ * The same work as {@link DummyTask}, run as a {@link ParallelLoop} on
+ * {@link TaskExecutors#getSubtaskPool()} and the task's own thread.
+ */
+public class ParallelTask extends BackgroundTask<int[]> {
+  private final int[] mResult = new int[DummyTask.STEPS];
+  private final int mChunkSize;
+  private final int mTraceSource;
+
+  /**
+   * @param chunkSize how many iterations a worker claims at a time.
+   * @param traceSource the {@link Trace} source the task's steps are logged
+   *          under.
+   */
+  public ParallelTask(String id, Listener listener, int chunkSize, int traceSource) {
+    super(id, listener);
+    mChunkSize = chunkSize;
+    mTraceSource = traceSource;
+  }
+
+  @Override
+  protected int[] doInBackground() {
+    final TaskClock clock = getClock();
+    try {
+      ParallelLoop.run(0, mResult.length, mChunkSize, TaskExecutors.DEFAULT_POOL_SIZE + 1,
+          TaskExecutors.getSubtaskPool(), getCancellationToken(),
+          new ParallelLoop.ProgressListener() {
+            @Override
+            public void onProgress(int percent) {
+              publishProgress(percent);
+            }
+          }, new ParallelLoop.Body() {
+            @Override
+            public void run(int i) throws InterruptedException {
+              if (Trace.ENABLED) Trace.event(mTraceSource, Trace.PUBLISH_PROGRESS, i);
+              clock.sleep(100);
+              mResult[i] = i * i;
+            }
+          });
+    } catch (InterruptedException e) {
+      // Cancelled.
+    } catch (ExecutionException e) {
+      // Fails the task; see BackgroundTask.getFailure().
+      throw new RuntimeException("Task " + getId() + " failed", e.getCause());
+    }
+    return mResult;
+  }
+
+}
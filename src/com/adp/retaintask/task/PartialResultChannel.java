@@ -0,0 +1,126 @@
+package com.adp.retaintask.task;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * PartialResultChannel streams results from a worker thread to the main
+ * thread as they are produced. Items published between two frames are
+ * delivered together as one batch on the next frame; a batch holds at most
+ * the configured maximum number of items, and the rest wait for the following
+ * frame, so a burst of results can't stall the main thread. That holds for
+ * the tail end as well: {@link #drain(Runnable)} lets the producer's outcome
+ * wait until everything has gone out at the usual pace.
+ */
+public final class PartialResultChannel implements Runnable {
+  public static final int DEFAULT_MAX_BATCH = 64;
+
+  /**
+   * Receives batches of results on the main thread.
+   */
+  public interface Listener {
+    void onPartialResults(List<Object> items);
+  }
+
+  private final Listener mListener;
+  private final FrameScheduler mScheduler = new FrameScheduler(this);
+  private final ConcurrentLinkedQueue<Object> mQueue = new ConcurrentLinkedQueue<Object>();
+  private volatile int mMaxBatch = DEFAULT_MAX_BATCH;
+  private volatile boolean mClosed;
+  private Runnable mOnDrained; // main thread only
+
+  public PartialResultChannel(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Set the largest number of items delivered in one batch.
+   */
+  public void setMaxBatch(int maxBatch) {
+    if (maxBatch < 1) {
+      throw new IllegalArgumentException("Batch size must be at least 1: " + maxBatch);
+    }
+    mMaxBatch = maxBatch;
+  }
+
+  /**
+   * Queue an item for delivery. Safe to call from any thread.
+   */
+  public void publish(Object item) {
+    if (!mClosed) {
+      mQueue.add(item);
+      mScheduler.schedule();
+    }
+  }
+
+  /**
+   * Keep delivering what is still queued, one batch per frame, and run
+   * <code>onDrained</code> once the queue is empty (right away if it already
+   * is). Nothing should be published after this. Must be called on the main
+   * thread.
+   */
+  public void drain(Runnable onDrained) {
+    mOnDrained = onDrained;
+    if (mQueue.isEmpty()) {
+      drained();
+    } else {
+      mScheduler.schedule();
+    }
+  }
+
+  /**
+   * Drop whatever is still queued, e.g. because nobody wants it anymore. A
+   * pending {@link #drain(Runnable)} completes on the next frame. Must be
+   * called on the main thread.
+   */
+  public void clear() {
+    mQueue.clear();
+  }
+
+  /**
+   * Stop delivering items, dropping any that are still queued. Must be called
+   * on the main thread.
+   */
+  public void close() {
+    mClosed = true;
+    mScheduler.cancel();
+    mQueue.clear();
+    mOnDrained = null;
+  }
+
+  /**
+   * Delivers the next batch. Invoked by the {@link FrameScheduler} on the main
+   * thread.
+   */
+  @Override
+  public void run() {
+    if (!mClosed) {
+      deliverBatch();
+      if (!mQueue.isEmpty()) {
+        mScheduler.schedule();
+      } else if (mOnDrained != null) {
+        drained();
+      }
+    }
+  }
+
+  private void drained() {
+    Runnable onDrained = mOnDrained;
+    mOnDrained = null;
+    onDrained.run();
+  }
+
+  private void deliverBatch() {
+    int max = mMaxBatch;
+    List<Object> batch = new ArrayList<Object>(Math.min(max, mQueue.size()));
+    Object item;
+    while (batch.size() < max && (item = mQueue.poll()) != null) {
+      batch.add(item);
+    }
+    if (!batch.isEmpty()) {
+      mListener.onPartialResults(batch);
+    }
+  }
+
+}
@@ -0,0 +1,329 @@
+package com.adp.retaintask.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Pipeline runs a sequence of stages (e.g. fetch, decode, transform, persist)
+ * concurrently, each on its own thread, so that I/O-bound and CPU-bound stages
+ * overlap instead of running back to back. Stages are connected by bounded
+ * queues. When a stage falls behind, its upstream neighbor either blocks until
+ * there is room ({@link Overflow#BLOCK}) or drops the item
+ * ({@link Overflow#SHED}).
+ * <p>
+ * Pipelines are immutable; {@link #then} returns a new, longer pipeline. A
+ * pipeline is built once and can be {@link #run} any number of times.
+ *
+ * @param <S> the type of the items fed into the first stage.
+ * @param <T> the type of the items produced by the last stage.
+ */
+public final class Pipeline<S, T> {
+  private static final Object END = new Object();
+
+  /**
+   * One step of the pipeline. Returning null drops the item.
+   */
+  public interface Stage<I, O> {
+    O process(I item) throws Exception;
+  }
+
+  /**
+   * What to do with an item when the next stage's queue is full.
+   */
+  public enum Overflow {
+    BLOCK, SHED
+  }
+
+  /**
+   * Receives overall progress, from 0 to 100, on the stage threads. Each call
+   * reports a higher percent than the one before.
+   */
+  public interface ProgressListener {
+    void onProgress(int percent);
+  }
+
+  /**
+   * Receives each item as it comes out the end of the pipeline, on the thread
+   * of the last stage.
+   */
+  public interface OutputListener<T> {
+    void onOutput(T item);
+  }
+
+  private static final class StageSpec {
+    final String mName;
+    final Stage<Object, Object> mStage;
+    final int mCapacity;
+    final Overflow mOverflow;
+
+    StageSpec(String name, Stage<Object, Object> stage, int capacity, Overflow overflow) {
+      mName = name;
+      mStage = stage;
+      mCapacity = capacity;
+      mOverflow = overflow;
+    }
+  }
+
+  private final List<StageSpec> mStages;
+
+  private Pipeline(List<StageSpec> stages) {
+    mStages = stages;
+  }
+
+  /**
+   * Returns an empty pipeline that passes items through unchanged.
+   */
+  public static <S> Pipeline<S, S> create() {
+    return new Pipeline<S, S>(Collections.<StageSpec> emptyList());
+  }
+
+  /**
+   * Returns a new pipeline with <code>stage</code> appended.
+   *
+   * @param capacity how many items may wait in front of the stage.
+   * @param overflow what the previous stage does when that queue is full.
+   */
+  @SuppressWarnings("unchecked")
+  public <R> Pipeline<S, R> then(String name, Stage<? super T, ? extends R> stage, int capacity,
+      Overflow overflow) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("Capacity must be at least 1: " + capacity);
+    }
+    List<StageSpec> stages = new ArrayList<StageSpec>(mStages);
+    stages.add(new StageSpec(name, (Stage<Object, Object>) stage, capacity, overflow));
+    return new Pipeline<S, R>(Collections.unmodifiableList(stages));
+  }
+
+  /**
+   * Push every item in <code>source</code> through the pipeline on the calling
+   * thread plus one thread per stage, and return what comes out the end (in
+   * order, minus any items that were dropped).
+   *
+   * @throws CancellationException if <code>token</code> is cancelled. Whatever
+   *           stages throw once that has happened (e.g. an
+   *           {@link java.io.InterruptedIOException} from interrupted I/O) is
+   *           taken as part of the cancellation.
+   * @throws ExecutionException if a stage throws.
+   * @throws InterruptedException if the calling thread is interrupted.
+   */
+  public List<T> run(Collection<? extends S> source, CancellationToken token,
+      ProgressListener listener) throws InterruptedException, ExecutionException {
+    return run(source, token, listener, null);
+  }
+
+  /**
+   * Like {@link #run(Collection, CancellationToken, ProgressListener)}, and
+   * also hand each output item to <code>output</code> as soon as it is
+   * produced.
+   */
+  @SuppressWarnings("unchecked")
+  public List<T> run(Collection<? extends S> source, final CancellationToken token,
+      ProgressListener listener, OutputListener<? super T> output)
+      throws InterruptedException, ExecutionException {
+    final OutputListener<Object> outputListener = (OutputListener<Object>) output;
+    final int stageCount = mStages.size();
+    final List<BlockingQueue<Object>> queues = new ArrayList<BlockingQueue<Object>>(stageCount + 1);
+    for (StageSpec spec : mStages) {
+      queues.add(new ArrayBlockingQueue<Object>(spec.mCapacity));
+    }
+    // Nothing downstream of the last stage can fall behind.
+    queues.add(new LinkedBlockingQueue<Object>());
+
+    final Progress progress = new Progress(source.size(), stageCount, listener);
+    final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+    final List<Thread> threads = new ArrayList<Thread>(stageCount);
+    final Thread caller = Thread.currentThread();
+    for (int i = 0; i < stageCount; i++) {
+      final int index = i;
+      final StageSpec spec = mStages.get(i);
+      threads.add(new Thread(new Runnable() {
+        @Override
+        public void run() {
+          try {
+            runStage(index, spec, queues.get(index), queues.get(index + 1), progress,
+                outputListener);
+          } catch (InterruptedException e) {
+            // Cancelled or another stage failed.
+          } catch (Throwable t) {
+            if (token.isCancelled()) {
+              // Most likely the stage's reaction to being interrupted.
+              return;
+            }
+            failure.compareAndSet(null, t);
+            for (Thread thread : threads) {
+              thread.interrupt();
+            }
+            caller.interrupt();
+          }
+        }
+      }, "Pipeline stage " + spec.mName));
+    }
+
+    CancellationToken.OnCancelListener onCancel = new CancellationToken.OnCancelListener() {
+      @Override
+      public void onCancel() {
+        for (Thread thread : threads) {
+          thread.interrupt();
+        }
+        caller.interrupt();
+      }
+    };
+    token.addOnCancelListener(onCancel);
+    try {
+      for (Thread thread : threads) {
+        thread.start();
+      }
+      try {
+        for (S item : source) {
+          offer(0, queues.get(0), item, progress, outputListener);
+        }
+        queues.get(0).put(END);
+        for (Thread thread : threads) {
+          thread.join();
+        }
+      } catch (InterruptedException e) {
+        if (failure.get() == null && !token.isCancelled()) {
+          throw e;
+        }
+        // The interrupt was ours, not the caller's.
+        Thread.interrupted();
+      }
+      // A cancellation trumps whatever the stages did in reaction to it.
+      token.throwIfCancelled();
+      if (failure.get() != null) {
+        throw new ExecutionException(failure.get());
+      }
+    } finally {
+      token.removeOnCancelListener(onCancel);
+      for (Thread thread : threads) {
+        thread.interrupt();
+      }
+      joinUninterruptibly(threads);
+    }
+
+    List<T> results = new ArrayList<T>();
+    for (Object item : queues.get(stageCount)) {
+      if (item != END) {
+        results.add((T) item);
+      }
+    }
+    return results;
+  }
+
+  /**
+   * Wait for every stage thread to stop, so that none of them is still
+   * producing output once {@link #run} returns. Interrupts that arrive in the
+   * meantime are kept for the caller.
+   */
+  private static void joinUninterruptibly(List<Thread> threads) {
+    boolean interrupted = false;
+    for (Thread thread : threads) {
+      while (true) {
+        try {
+          thread.join();
+          break;
+        } catch (InterruptedException e) {
+          interrupted = true;
+        }
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void runStage(int index, StageSpec spec, BlockingQueue<Object> in,
+      BlockingQueue<Object> out, Progress progress, OutputListener<Object> output)
+      throws Exception {
+    while (true) {
+      Object item = in.take();
+      if (item == END) {
+        out.put(END);
+        return;
+      }
+      Object result = spec.mStage.process(item);
+      if (result == null) {
+        progress.dropped(index);
+      } else {
+        progress.completed();
+        offer(index + 1, out, result, progress, output);
+      }
+    }
+  }
+
+  /**
+   * Hand an item to the stage at <code>index</code> (or to the output, if
+   * <code>index</code> is past the last stage), honoring that stage's overflow
+   * policy.
+   */
+  private void offer(int index, BlockingQueue<Object> queue, Object item, Progress progress,
+      OutputListener<Object> output) throws InterruptedException {
+    if (index == mStages.size() && output != null) {
+      output.onOutput(item);
+    }
+    if (index < mStages.size() && mStages.get(index).mOverflow == Overflow.SHED) {
+      if (!queue.offer(item)) {
+        progress.dropped(index);
+      }
+    } else {
+      queue.put(item);
+    }
+  }
+
+  /**
+   * Tracks how many (item, stage) pairs are done. An item that is dropped by or
+   * in front of a stage counts as done for that stage and every one after it,
+   * so the total still adds up to 100%.
+   */
+  private static final class Progress {
+    private final AtomicInteger mDone = new AtomicInteger();
+    private final long mTotal;
+    private final ProgressListener mListener;
+    private final int mStageCount;
+    private final Object mReportLock = new Object();
+    private volatile int mReported = -1; // written under mReportLock
+
+    Progress(int items, int stageCount, ProgressListener listener) {
+      mTotal = (long) items * stageCount;
+      mStageCount = stageCount;
+      mListener = listener;
+    }
+
+    void completed() {
+      report(mDone.incrementAndGet());
+    }
+
+    void dropped(int stage) {
+      report(mDone.addAndGet(mStageCount - stage));
+    }
+
+    private void report(int done) {
+      if (mListener == null || mTotal == 0) {
+        return;
+      }
+      int percent = (int) (done * 100L / mTotal);
+      // Stage threads and the caller report concurrently, and another may
+      // have handed over a higher percent first.
+      if (percent <= mReported) {
+        return;
+      }
+      // Only taken when the percent has moved, at most ~100 times per run.
+      synchronized (mReportLock) {
+        if (percent > mReported) {
+          mReported = percent;
+          mListener.onProgress(percent);
+        }
+      }
+    }
+  }
+
+}
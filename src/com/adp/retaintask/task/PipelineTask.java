@@ -0,0 +1,49 @@
+package com.adp.retaintask.task;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * PipelineTask runs a {@link Pipeline} over a fixed set of items as a
+ * {@link BackgroundTask}, folding the progress of every stage into the task's
+ * single percent. Output items are streamed to listeners as partial results
+ * while the pipeline runs.
+ */
+public class PipelineTask<S, T> extends BackgroundTask<List<T>> {
+  private final Pipeline<S, T> mPipeline;
+  private final Collection<? extends S> mSource;
+
+  public PipelineTask(String id, Listener listener, Pipeline<S, T> pipeline,
+      Collection<? extends S> source) {
+    super(id, listener);
+    mPipeline = pipeline;
+    // Copy the items so the caller can't change them under the worker.
+    mSource = new ArrayList<S>(source);
+  }
+
+  @Override
+  protected List<T> doInBackground() {
+    try {
+      return mPipeline.run(mSource, getCancellationToken(), new Pipeline.ProgressListener() {
+        @Override
+        public void onProgress(int percent) {
+          publishProgress(percent);
+        }
+      }, new Pipeline.OutputListener<T>() {
+        @Override
+        public void onOutput(T item) {
+          publishPartialResult(item);
+        }
+      });
+    } catch (InterruptedException e) {
+      // Cancelled.
+      return null;
+    } catch (ExecutionException e) {
+      // Fails the task; see BackgroundTask.getFailure().
+      throw new RuntimeException("Pipeline " + getId() + " failed", e.getCause());
+    }
+  }
+
+}
@@ -0,0 +1,207 @@
+package com.adp.retaintask.task;
+
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * PriorityTaskExecutor is a fixed-size pool that always hands the most urgent
+ * queued {@link BackgroundTask} to the next free thread (tasks of equal
+ * priority run in the order they were submitted).
+ * <p>
+ * While any {@link TaskPriority#USER_VISIBLE} work is queued or running,
+ * {@link TaskPriority#BACKGROUND} tasks that reach a safe point (see
+ * {@link BackgroundTask#pauseIfPreempted()}) park themselves. Each parked task
+ * lends its slot to an extra thread, so the user-visible work doesn't wait for
+ * the background task to finish. The pool's size is therefore always its
+ * {@link #setBaseSize base size} plus the number of parked tasks. A
+ * user-visible task that is paused by a soft cancel (see
+ * {@link TaskEngine#leave}) doesn't count as urgent until it is resumed.
+ */
+public class PriorityTaskExecutor extends ThreadPoolExecutor {
+
+  private static final Comparator<Runnable> ORDER = new Comparator<Runnable>() {
+    @Override
+    public int compare(Runnable lhs, Runnable rhs) {
+      int result = priorityOf(lhs).compareTo(priorityOf(rhs));
+      if (result == 0) {
+        long lhsSeq = sequenceOf(lhs);
+        long rhsSeq = sequenceOf(rhs);
+        result = lhsSeq < rhsSeq ? -1 : (lhsSeq == rhsSeq ? 0 : 1);
+      }
+      return result;
+    }
+  };
+
+  private final Object mLock = new Object();
+  // User-visible tasks queued or running, except paused ones, which are moved
+  // to mReleased. Guarded by mLock.
+  private final HashSet<Runnable> mUrgent = new HashSet<Runnable>();
+  private final HashSet<Runnable> mReleased = new HashSet<Runnable>();
+  private int mParked; // guarded by mLock
+  private int mBaseSize; // guarded by mLock
+
+  public PriorityTaskExecutor(int size, long keepAliveSeconds, ThreadFactory factory) {
+    super(size, size, keepAliveSeconds, TimeUnit.SECONDS,
+        new PriorityBlockingQueue<Runnable>(11, ORDER), factory);
+    mBaseSize = size;
+  }
+
+  /**
+   * Set the number of threads the pool runs when no task is parked. Tasks that
+   * are already running are not affected; queued tasks will be picked up by
+   * the new number of threads. Threads lent to parked tasks come on top.
+   */
+  public void setBaseSize(int size) {
+    if (size < 1) {
+      throw new IllegalArgumentException("Pool size must be at least 1: " + size);
+    }
+    synchronized (mLock) {
+      mBaseSize = size;
+      applySize();
+    }
+  }
+
+  public int getBaseSize() {
+    synchronized (mLock) {
+      return mBaseSize;
+    }
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    boolean urgent = priorityOf(command) == TaskPriority.USER_VISIBLE;
+    if (urgent) {
+      synchronized (mLock) {
+        mUrgent.add(command);
+      }
+    }
+    try {
+      super.execute(command);
+    } catch (RejectedExecutionException e) {
+      // It will never run, so afterExecute() won't let go of it either.
+      if (urgent) {
+        synchronized (mLock) {
+          if (mUrgent.remove(command) && mUrgent.isEmpty()) {
+            mLock.notifyAll();
+          }
+        }
+      }
+      throw e;
+    }
+  }
+
+  @Override
+  protected void afterExecute(Runnable r, Throwable t) {
+    super.afterExecute(r, t);
+    if (priorityOf(r) == TaskPriority.USER_VISIBLE) {
+      synchronized (mLock) {
+        mReleased.remove(r);
+        if (mUrgent.remove(r) && mUrgent.isEmpty()) {
+          mLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Stop counting <code>task</code> as urgent while it is paused, so that
+   * background work isn't held up by a task that isn't running. Does nothing
+   * if the task isn't user-visible or has already finished.
+   */
+  void releaseUrgent(BackgroundTask<?> task) {
+    synchronized (mLock) {
+      if (mUrgent.remove(task)) {
+        mReleased.add(task);
+        if (mUrgent.isEmpty()) {
+          mLock.notifyAll();
+        }
+      }
+    }
+  }
+
+  /**
+   * Count a task released by {@link #releaseUrgent} as urgent again once it is
+   * resumed. Does nothing if it has finished in the meantime.
+   */
+  void reclaimUrgent(BackgroundTask<?> task) {
+    synchronized (mLock) {
+      if (mReleased.remove(task)) {
+        mUrgent.add(task);
+      }
+    }
+  }
+
+  /**
+   * Returns true if user-visible work is queued or running.
+   */
+  public boolean hasUrgentWork() {
+    synchronized (mLock) {
+      return !mUrgent.isEmpty();
+    }
+  }
+
+  /**
+   * Returns the number of background tasks currently parked at a safe point.
+   */
+  public int getParkedCount() {
+    synchronized (mLock) {
+      return mParked;
+    }
+  }
+
+  /**
+   * Block the calling (background) worker until no user-visible work is left,
+   * lending its slot to an extra thread in the meantime.
+   *
+   * @throws InterruptedException if the worker is interrupted, e.g. because
+   *           its task was cancelled.
+   */
+  void park() throws InterruptedException {
+    synchronized (mLock) {
+      if (mUrgent.isEmpty()) {
+        return;
+      }
+      mParked++;
+      applySize();
+      try {
+        while (!mUrgent.isEmpty()) {
+          mLock.wait();
+        }
+      } finally {
+        mParked--;
+        applySize();
+      }
+    }
+  }
+
+  /**
+   * The only place the pool is resized. Must be called with mLock held.
+   */
+  private void applySize() {
+    int size = mBaseSize + mParked;
+    // The core size may never exceed the maximum size, so grow the maximum
+    // first and shrink it last.
+    if (size > getMaximumPoolSize()) {
+      setMaximumPoolSize(size);
+      setCorePoolSize(size);
+    } else {
+      setCorePoolSize(size);
+      setMaximumPoolSize(size);
+    }
+  }
+
+  private static TaskPriority priorityOf(Runnable r) {
+    return r instanceof BackgroundTask ? ((BackgroundTask<?>) r).getPriority()
+        : TaskPriority.VISIBLE_SOON;
+  }
+
+  private static long sequenceOf(Runnable r) {
+    return r instanceof BackgroundTask ? ((BackgroundTask<?>) r).getSequence() : 0;
+  }
+
+}
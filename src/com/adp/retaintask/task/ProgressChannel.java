@@ -0,0 +1,167 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adp.retaintask.util.LatencyHistogram;
+
+/**
+ * ProgressChannel carries progress from a worker thread to the main thread
+ * without letting the worker's update rate drive main-thread load. Only the
+ * newest value is kept, and it is delivered at most once per display frame (and
+ * no more often than the configured minimum interval).
+ * <p>
+ * The interval also adapts to how busy the main thread is: when deliveries
+ * start running late because the main thread's queue is backed up, the
+ * channel backs off (down to a few updates per second), and it speeds back up
+ * to once per frame when the queue drains.
+ * <p>
+ * Values are plain <code>long</code>s held in a volatile field, and the frame
+ * callbacks are created once up front, so publishing and delivering an update
+ * allocates nothing (unlike <code>AsyncTask.publishProgress()</code>, which boxes
+ * every value into a varargs array).
+ */
+public final class ProgressChannel implements Runnable {
+
+  /**
+   * Receives coalesced progress values on the main thread.
+   */
+  public interface Listener {
+    void onProgress(long value);
+  }
+
+  /** Time from a value's publication to its delivery, in microseconds. */
+  private static final LatencyHistogram sDeliveryLatency = new LatencyHistogram("us");
+
+  /** Deliveries running later than this make the channel back off. */
+  private static final long CONGESTED_DELAY_MILLIS = 32;
+  /** Deliveries running no later than this let the channel speed up again. */
+  private static final long IDLE_DELAY_MILLIS = 4;
+  private static final long MIN_ADAPTIVE_INTERVAL_MILLIS = 16;
+  private static final long MAX_ADAPTIVE_INTERVAL_MILLIS = 250;
+
+  private final Listener mListener;
+  private final FrameScheduler mScheduler = new FrameScheduler(this);
+  private volatile long mLatest;
+  // When the oldest undelivered value was published, or 0 if none is pending.
+  // Workers race to set it, so it is approximate by a few microseconds.
+  private volatile long mPendingSince;
+  private volatile long mMinIntervalMillis;
+  private volatile TaskClock mClock = TaskClock.SYSTEM;
+  private volatile boolean mClosed;
+  // Counted here, where only this channel's workers touch it, and added to
+  // TaskMetrics from the main thread.
+  private final AtomicLong mPublished = new AtomicLong();
+
+  // Only accessed on the main thread.
+  private boolean mHasDelivered;
+  private long mDelivered;
+  private long mLastDeliveryTime;
+  private long mAdaptiveIntervalMillis;
+  private long mPublishedReported;
+
+  public ProgressChannel(Listener listener) {
+    mListener = listener;
+  }
+
+  /**
+   * Set the minimum time between two deliveries. Zero (the default) means once
+   * per frame.
+   */
+  public void setMinInterval(long millis) {
+    mMinIntervalMillis = millis;
+  }
+
+  /**
+   * Set the clock that the minimum interval is measured against.
+   */
+  public void setClock(TaskClock clock) {
+    mClock = clock;
+  }
+
+  /**
+   * Returns the publish-to-delivery latency of every channel so far.
+   */
+  public static LatencyHistogram getDeliveryLatency() {
+    return sDeliveryLatency;
+  }
+
+  /**
+   * Record a new progress value. Safe to call from any thread, as often as the
+   * caller likes.
+   */
+  public void publish(long value) {
+    if (!mClosed) {
+      mPublished.incrementAndGet();
+      mLatest = value;
+      if (mPendingSince == 0) {
+        mPendingSince = System.nanoTime();
+      }
+      mScheduler.schedule();
+    }
+  }
+
+  /**
+   * Stop delivering values. Must be called on the main thread.
+   */
+  public void close() {
+    mClosed = true;
+    mScheduler.cancel();
+    reportPublished();
+  }
+
+  /**
+   * Delivers the newest value. Invoked by the {@link FrameScheduler} on the
+   * main thread.
+   */
+  @Override
+  public void run() {
+    if (mClosed) {
+      return;
+    }
+    adapt(mScheduler.getLastDelayMillis());
+    long now = mClock.uptimeMillis();
+    long interval = Math.max(mMinIntervalMillis, mAdaptiveIntervalMillis);
+    long wait = mLastDeliveryTime + interval - now;
+    if (mHasDelivered && wait > 0) {
+      mScheduler.schedule(wait);
+      return;
+    }
+    long value = mLatest;
+    if (!mHasDelivered || value != mDelivered) {
+      mHasDelivered = true;
+      mDelivered = value;
+      mLastDeliveryTime = now;
+      reportPublished();
+      TaskMetrics.progressDelivered();
+      mListener.onProgress(value);
+    }
+    long since = mPendingSince;
+    if (since != 0) {
+      mPendingSince = 0;
+      sDeliveryLatency.record((System.nanoTime() - since) / 1000);
+    }
+  }
+
+  private void reportPublished() {
+    long published = mPublished.get();
+    TaskMetrics.progressPublished(published - mPublishedReported);
+    mPublishedReported = published;
+  }
+
+  /**
+   * Double the delivery interval while the main thread is congested, and halve
+   * it (back to zero, i.e. every frame) while it is idle.
+   */
+  private void adapt(long queueDelayMillis) {
+    if (queueDelayMillis > CONGESTED_DELAY_MILLIS) {
+      mAdaptiveIntervalMillis = Math.min(MAX_ADAPTIVE_INTERVAL_MILLIS,
+          Math.max(MIN_ADAPTIVE_INTERVAL_MILLIS, mAdaptiveIntervalMillis * 2));
+    } else if (queueDelayMillis <= IDLE_DELAY_MILLIS && mAdaptiveIntervalMillis > 0) {
+      mAdaptiveIntervalMillis /= 2;
+      if (mAdaptiveIntervalMillis < MIN_ADAPTIVE_INTERVAL_MILLIS) {
+        mAdaptiveIntervalMillis = 0;
+      }
+    }
+  }
+
+}
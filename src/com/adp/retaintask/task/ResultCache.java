@@ -0,0 +1,57 @@
+package com.adp.retaintask.task;
+
+import android.content.ComponentCallbacks2;
+import android.support.v4.util.LruCache;
+
+/**
+ * ResultCache keeps the results of finished tasks, keyed by task input, so
+ * that asking for the same work again can return immediately. The cache is
+ * bounded by the approximate size of its values in bytes, and gives memory
+ * back when the system asks for it through {@link #onTrimMemory(int)} and
+ * {@link #onLowMemory()}.
+ * <p>
+ * Hit and miss counts are available from {@link #hitCount()} and
+ * {@link #missCount()}.
+ */
+public abstract class ResultCache<V> extends LruCache<String, V> {
+
+  /**
+   * Returns a reasonable default size: 1/32nd of the heap the VM will give us.
+   */
+  public static int defaultMaxBytes() {
+    return (int) Math.min(Integer.MAX_VALUE, Runtime.getRuntime().maxMemory() / 32);
+  }
+
+  public ResultCache(int maxBytes) {
+    super(maxBytes);
+  }
+
+  /**
+   * Returns the approximate size of <code>value</code> in bytes.
+   */
+  protected abstract int sizeOfBytes(V value);
+
+  @Override
+  protected final int sizeOf(String key, V value) {
+    return sizeOfBytes(value);
+  }
+
+  /**
+   * Evict entries according to how hard the system is pressed for memory.
+   */
+  public void onTrimMemory(int level) {
+    if (level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE) {
+      // We're in the middle of the LRU list and may be killed soon.
+      evictAll();
+    } else if (level >= ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW) {
+      // Either we're in the background or the device is running low; keep
+      // only the most recently used half.
+      trimToSize(maxSize() / 2);
+    }
+  }
+
+  public void onLowMemory() {
+    evictAll();
+  }
+
+}
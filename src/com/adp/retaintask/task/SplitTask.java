@@ -0,0 +1,77 @@
+package com.adp.retaintask.task;
+
+import com.adp.retaintask.util.Trace;
+
+/**
+ * The same work as {@link DummyTask}, split into slices that run in parallel
+ * on {@link TaskExecutors#getSubtaskPool()}. Each slice reports its own
+ * progress to an {@link AggregateProgress}, weighted by its length.
+ */
+public class SplitTask extends BackgroundTask<int[]> {
+  private final int[] mResult = new int[DummyTask.STEPS];
+  private final int mSubtasks;
+  private final int mTraceSource;
+
+  /**
+   * @param traceSource the {@link Trace} source the task's steps are logged
+   *          under.
+   */
+  public SplitTask(String id, Listener listener, int subtasks, int traceSource) {
+    super(id, listener);
+    mSubtasks = Math.max(1, Math.min(subtasks, mResult.length));
+    mTraceSource = traceSource;
+  }
+
+  @Override
+  protected int[] doInBackground() {
+    // Slice the work as evenly as we can; the first few slices may be one
+    // step longer than the rest.
+    long[] weights = new long[mSubtasks];
+    for (int i = 0; i < mResult.length; i++) {
+      weights[i % mSubtasks]++;
+    }
+    final AggregateProgress progress = newAggregateProgress(weights);
+    final CancellationToken token = getCancellationToken();
+    final TaskClock clock = getClock();
+    // Interrupts the slices when the task is cancelled.
+    final WorkerGroup slices = new WorkerGroup(mSubtasks);
+    token.addOnCancelListener(slices);
+    int from = 0;
+    for (int s = 0; s < mSubtasks; s++) {
+      final int subtask = s;
+      final int start = from;
+      final int end = from + (int) weights[s];
+      from = end;
+      TaskExecutors.getSubtaskPool().execute(new Runnable() {
+        @Override
+        public void run() {
+          slices.enter();
+          try {
+            for (int i = start; i < end && !token.isCancelled(); i++) {
+              if (Trace.ENABLED) Trace.event(mTraceSource, Trace.PUBLISH_PROGRESS, i);
+              clock.sleep(100);
+              mResult[i] = i * i;
+              progress.update(subtask, i + 1 - start, end - start);
+            }
+          } catch (InterruptedException e) {
+            // Cancelled; leave the rest of the slice undone.
+          } finally {
+            slices.exit();
+          }
+        }
+      });
+    }
+    try {
+      // Waiting also makes every slice's writes to mResult visible here.
+      slices.await();
+    } catch (InterruptedException e) {
+      // Cancelled. The slices have been interrupted too; don't return before
+      // they have stopped writing to mResult.
+      slices.awaitUninterruptibly();
+    } finally {
+      token.removeOnCancelListener(slices);
+    }
+    return mResult;
+  }
+
+}
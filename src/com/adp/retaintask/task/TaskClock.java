@@ -0,0 +1,42 @@
+package com.adp.retaintask.task;
+
+import android.os.SystemClock;
+
+/**
+ * TaskClock is the source of time for the task layer: the pace of progress
+ * delivery, checkpoint batching, and the waits inside a task's own work. Tasks
+ * use {@link #SYSTEM} unless given another clock, such as a
+ * {@link VirtualClock} that lets long-running scenarios play out instantly.
+ */
+public interface TaskClock {
+
+  /**
+   * The real clock, backed by {@link SystemClock#uptimeMillis()} and
+   * {@link Thread#sleep(long)}.
+   */
+  TaskClock SYSTEM = new TaskClock() {
+    @Override
+    public long uptimeMillis() {
+      return SystemClock.uptimeMillis();
+    }
+
+    @Override
+    public void sleep(long millis) throws InterruptedException {
+      Thread.sleep(millis);
+    }
+  };
+
+  /**
+   * Returns milliseconds since an arbitrary, fixed origin.
+   */
+  long uptimeMillis();
+
+  /**
+   * Wait for <code>millis</code> milliseconds of this clock's time.
+   *
+   * @throws InterruptedException if the calling thread is interrupted, e.g.
+   *           because its task was cancelled.
+   */
+  void sleep(long millis) throws InterruptedException;
+
+}
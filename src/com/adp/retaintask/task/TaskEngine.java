@@ -0,0 +1,195 @@
+package com.adp.retaintask.task;
+
+import java.util.HashMap;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+/**
+ * TaskEngine owns task execution for the lifetime of the process, independent
+ * of any Activity or Fragment. Tasks are registered under a key that names the
+ * work they do, and callers {@link #attach} to and {@link #detach} from them
+ * by that key:
+ * <ul>
+ * <li>A second caller asking for a key that is already running joins the
+ * existing execution and receives the same progress and result instead of
+ * starting the work again.</li>
+ * <li>A task whose last caller detaches (e.g. because the user pressed Back) is
+ * orphaned rather than cancelled. If nobody attaches within the
+ * {@link #setIdleTimeout idle timeout}, it is cancelled for real; if it
+ * finishes in the meantime, its result is kept for the same amount of time so
+ * that a returning caller gets it without redoing the work.</li>
+ * <li>A caller that explicitly {@link #leave leaves} a task it is the only
+ * listener of cancels it, softly: for a {@link #setCancelGracePeriod grace
+ * period} the task is only paused, and attaching to it again resumes it where
+ * it left off. Once the grace period is over it is cancelled for real.</li>
+ * </ul>
+ * All methods must be called on the main thread.
+ */
+public final class TaskEngine {
+
+  /**
+   * How long orphaned work is kept, unless changed with
+   * {@link #setIdleTimeout(long)}.
+   */
+  public static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30 * 1000;
+
+  /**
+   * How long a cancelled task stays paused, unless changed with
+   * {@link #setCancelGracePeriod(long)}.
+   */
+  public static final long DEFAULT_CANCEL_GRACE_MILLIS = 3 * 1000;
+
+  private static final HashMap<String, BackgroundTask<?>> sTasks =
+      new HashMap<String, BackgroundTask<?>>();
+  private static final HashMap<String, Runnable> sExpiries = new HashMap<String, Runnable>();
+  private static final Handler sHandler = new Handler(Looper.getMainLooper());
+  private static long sIdleTimeoutMillis = DEFAULT_IDLE_TIMEOUT_MILLIS;
+  private static long sCancelGraceMillis = DEFAULT_CANCEL_GRACE_MILLIS;
+
+  private TaskEngine() {}
+
+  /**
+   * Set how long a task may go without listeners before it is cancelled, or
+   * its finished result discarded. Applies to tasks orphaned from now on.
+   */
+  public static void setIdleTimeout(long millis) {
+    sIdleTimeoutMillis = millis;
+  }
+
+  /**
+   * Set how long a task that is {@link #leave left} by its last listener stays
+   * paused before it is really cancelled. Zero cancels right away. A paused task
+   * keeps its worker thread, so the period should stay short.
+   */
+  public static void setCancelGracePeriod(long millis) {
+    sCancelGraceMillis = millis;
+  }
+
+  /**
+   * If work for <code>key</code> is running (or paused), add
+   * <code>listener</code> to it and return the task. If it finished while
+   * orphaned, return the task without adding the listener; the caller should
+   * report its result itself. Otherwise return null.
+   */
+  public static BackgroundTask<?> attach(String key, BackgroundTask.Listener listener) {
+    BackgroundTask<?> task = sTasks.get(key);
+    if (task == null || task.isCancelled()) {
+      return null;
+    }
+    cancelExpiry(key);
+    if (task.getStatus() == BackgroundTask.Status.FINISHED) {
+      // Handed over to the caller; the next attach starts afresh.
+      sTasks.remove(key);
+    } else {
+      // Picks a softly cancelled task up where it was paused.
+      task.resume();
+      task.addListener(listener);
+    }
+    return task;
+  }
+
+  /**
+   * Execute <code>task</code> and register it as the work for
+   * <code>key</code> until it finishes or is cancelled.
+   */
+  public static void execute(String key, BackgroundTask<?> task, Executor executor) {
+    cancelExpiry(key);
+    sTasks.put(key, task);
+    task.setEngineKey(key);
+    task.execute(executor);
+  }
+
+  /**
+   * Stop listening to <code>task</code> without cancelling it. If
+   * <code>listener</code> was the last one, the task is orphaned and will be
+   * cancelled once the idle timeout expires, unless someone attaches first.
+   * Tasks that weren't executed through the engine can't be attached to again,
+   * so they are cancelled right away instead.
+   */
+  public static void detach(BackgroundTask<?> task, BackgroundTask.Listener listener) {
+    task.removeListener(listener);
+    if (task.getListenerCount() == 0) {
+      String key = task.getEngineKey();
+      if (key == null || sTasks.get(key) != task) {
+        task.cancel(true);
+      } else {
+        scheduleExpiry(key, task, sIdleTimeoutMillis);
+      }
+    }
+  }
+
+  /**
+   * Stop listening to <code>task</code>, and cancel it if <code>listener</code>
+   * was the only one left. The cancellation is soft if the task was executed
+   * through the engine and a grace period is set: the task is paused and
+   * stops sending events, and is only cancelled once the grace period expires
+   * without anyone attaching to it.
+   *
+   * @return true if the task was cancelled outright (and the listener will be
+   *         told so in the usual way); false if the listener was simply
+   *         removed, in which case no more events reach it.
+   */
+  public static boolean leave(BackgroundTask<?> task, BackgroundTask.Listener listener) {
+    if (task.getListenerCount() > 1) {
+      task.removeListener(listener);
+      return false;
+    }
+    String key = task.getEngineKey();
+    if (sCancelGraceMillis <= 0 || key == null || sTasks.get(key) != task) {
+      task.cancel(true);
+      return true;
+    }
+    task.pause();
+    task.removeListener(listener);
+    scheduleExpiry(key, task, sCancelGraceMillis);
+    return false;
+  }
+
+  /**
+   * Called when <code>task</code> finishes or is cancelled. A finished task
+   * that nobody is listening to keeps its place until the idle timeout.
+   */
+  static void onFinished(String key, BackgroundTask<?> task) {
+    if (sTasks.get(key) != task) {
+      return;
+    }
+    if (task.getStatus() == BackgroundTask.Status.FINISHED && task.getListenerCount() == 0) {
+      // Already orphaned, so an expiry is pending and will drop the result.
+      return;
+    }
+    cancelExpiry(key);
+    sTasks.remove(key);
+  }
+
+  private static void scheduleExpiry(final String key, final BackgroundTask<?> task,
+      long delayMillis) {
+    cancelExpiry(key);
+    Runnable expiry = new Runnable() {
+      @Override
+      public void run() {
+        sExpiries.remove(key);
+        if (sTasks.get(key) != task || task.getListenerCount() > 0) {
+          return;
+        }
+        if (task.getStatus() == BackgroundTask.Status.RUNNING) {
+          // Removed from the registry once the worker stops.
+          task.cancel(true);
+        } else {
+          sTasks.remove(key);
+        }
+      }
+    };
+    sExpiries.put(key, expiry);
+    sHandler.postDelayed(expiry, delayMillis);
+  }
+
+  private static void cancelExpiry(String key) {
+    Runnable expiry = sExpiries.remove(key);
+    if (expiry != null) {
+      sHandler.removeCallbacks(expiry);
+    }
+  }
+
+}
@@ -0,0 +1,81 @@
+package com.adp.retaintask.task;
+
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import android.os.Process;
+
+/**
+ * TaskExecutors owns the dedicated thread pool on which background tasks are
+ * run. Unlike {@link android.os.AsyncTask#execute}, which (on Honeycomb and
+ * above) funnels every task in the app through a single serial executor, the
+ * default pool runs one task per available core, most urgent first (see
+ * {@link PriorityTaskExecutor}).
+ */
+public final class TaskExecutors {
+  private static final int CPU_COUNT = Runtime.getRuntime().availableProcessors();
+  private static final long KEEP_ALIVE_SECONDS = 30;
+
+  /**
+   * The number of threads in the default pool unless changed with
+   * {@link #setDefaultPoolSize(int)}.
+   */
+  public static final int DEFAULT_POOL_SIZE = Math.max(1, CPU_COUNT);
+
+  private static PriorityTaskExecutor sDefault;
+  private static PriorityTaskExecutor sSubtasks;
+
+  private TaskExecutors() {}
+
+  /**
+   * Returns the shared pool that tasks are executed on by default.
+   */
+  public static synchronized PriorityTaskExecutor getDefault() {
+    if (sDefault == null) {
+      sDefault = newPool("TaskPool", DEFAULT_POOL_SIZE);
+    }
+    return sDefault;
+  }
+
+  /**
+   * Returns the pool on which tasks run the pieces they split their work into.
+   * It is separate from the default pool so that a task waiting on its pieces
+   * can never starve them of threads.
+   */
+  public static synchronized PriorityTaskExecutor getSubtaskPool() {
+    if (sSubtasks == null) {
+      sSubtasks = newPool("SubtaskPool", DEFAULT_POOL_SIZE);
+    }
+    return sSubtasks;
+  }
+
+  /**
+   * Resizes the shared pool (see {@link PriorityTaskExecutor#setBaseSize(int)}).
+   */
+  public static synchronized void setDefaultPoolSize(int size) {
+    getDefault().setBaseSize(size);
+  }
+
+  /**
+   * Creates a fixed-size, priority-ordered pool whose threads run at background
+   * priority so they don't compete with the UI thread.
+   */
+  public static PriorityTaskExecutor newPool(final String name, int size) {
+    ThreadFactory factory = new ThreadFactory() {
+      private final AtomicInteger mCount = new AtomicInteger(1);
+
+      @Override
+      public Thread newThread(final Runnable r) {
+        return new Thread(new Runnable() {
+          @Override
+          public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_BACKGROUND);
+            r.run();
+          }
+        }, name + " #" + mCount.getAndIncrement());
+      }
+    };
+    return new PriorityTaskExecutor(size, KEEP_ALIVE_SECONDS, factory);
+  }
+
+}
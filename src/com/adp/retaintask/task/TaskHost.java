@@ -0,0 +1,765 @@
+package com.adp.retaintask.task;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.adp.retaintask.util.LifecycleMetrics;
+
+/**
+ * TaskHost is the host-independent half of a retained TaskFragment. It manages
+ * any number of background tasks, keyed by ID, and survives its host (an
+ * Activity or a target fragment) being recreated. Tasks run concurrently (by
+ * default on the shared pool returned by {@link TaskExecutors#getDefault()}),
+ * and identical work that is already in flight elsewhere in the process is
+ * joined through the {@link TaskEngine} rather than started twice. Work is not
+ * thrown away when the host finishes: the engine keeps it for a while in case
+ * the user comes back.
+ * <p>
+ * Events that arrive while no host is attached are collapsed into each task's
+ * {@link TaskSnapshot}, and partial results are held, until the next host is
+ * brought up to date by {@link #replay()}. The owner binds a host with
+ * {@link #attach}, {@link #replay()}, {@link #detach()} and {@link #destroy()},
+ * in that order, as a retained fragment's onAttach(), onActivityCreated(),
+ * onDetach() and onDestroy() do.
+ * <p>
+ * A TaskHost is only accessed on the main thread.
+ */
+public class TaskHost implements BackgroundTask.TransferListener,
+    BackgroundTask.PartialResultListener {
+
+  /**
+   * The ID of the task started by {@link #start()}.
+   */
+  public static final String DEFAULT_TASK_ID = "default";
+
+  /**
+   * Callback interface through which each task's progress and results are
+   * reported back to the host. Every method receives the ID of the task it
+   * concerns.
+   */
+  public interface Callbacks {
+    void onPreExecute(String id);
+    void onProgressUpdate(String id, int percent);
+    void onCancelled(String id);
+    void onTimedOut(String id);
+    void onFailed(String id);
+    void onPostExecute(String id);
+  }
+
+  /**
+   * Optional extension of {@link Callbacks} for hosts that want tasks' byte
+   * counts, transfer rate and estimated time left as well. The rate and ETA are
+   * -1 until they can be estimated.
+   */
+  public interface TransferCallbacks extends Callbacks {
+    void onTransferProgress(String id, long bytes, long totalBytes, long bytesPerSecond,
+        long etaMillis);
+  }
+
+  /**
+   * Optional extension of {@link Callbacks} for hosts that want tasks' results
+   * as they are produced. Results arrive in batches of at most
+   * {@link PartialResultChannel#DEFAULT_MAX_BATCH}, all of them before
+   * {@link #onPostExecute(String)}. Results produced while no host is attached
+   * are held and delivered to the next one, at the same pace.
+   */
+  public interface PartialResultCallbacks extends Callbacks {
+    void onPartialResults(String id, List<?> items);
+  }
+
+  private static final Handler sHandler = new Handler(Looper.getMainLooper());
+
+  private final int mTraceSource;
+  private final HashMap<String, BackgroundTask<?>> mTasks =
+      new HashMap<String, BackgroundTask<?>>();
+  private final HashMap<String, TaskSnapshot> mSnapshots = new HashMap<String, TaskSnapshot>();
+  private final HashMap<String, ArrayList<Object>> mHeldPartials =
+      new HashMap<String, ArrayList<Object>>();
+  // Hands held partial results to the host one batch per frame.
+  private final FrameScheduler mPartialReplay = new FrameScheduler(new Runnable() {
+    @Override
+    public void run() {
+      replayNextPartials();
+    }
+  });
+  private final ResultCache<int[]> mResults =
+      new ResultCache<int[]>(ResultCache.defaultMaxBytes()) {
+        @Override
+        protected int sizeOfBytes(int[] value) {
+          return 16 + 4 * value.length;
+        }
+      };
+  // Held weakly so that a retained fragment can never pin a dead host, even
+  // if a detach is missed.
+  private WeakReference<Callbacks> mCallbacks = new WeakReference<Callbacks>(null);
+  private Executor mExecutor = TaskExecutors.getDefault();
+  private TaskClock mClock = TaskClock.SYSTEM;
+  private File mJournalDir;
+  private boolean mJournalsRestored;
+  private boolean mDestroyed;
+
+  /**
+   * @param traceSource the {@link com.adp.retaintask.util.Trace} source the
+   *          tasks' steps are logged under.
+   */
+  public TaskHost(int traceSource) {
+    mTraceSource = traceSource;
+  }
+
+  /**
+   * Keep the checkpoint journals of tasks started from now on in
+   * <code>dir</code>, and restore interrupted ones from there. Without a
+   * directory, tasks keep no checkpoints and nothing is restored.
+   */
+  public void setJournalDir(File dir) {
+    mJournalDir = dir;
+  }
+
+  /************************/
+  /***** HOST BINDING *****/
+  /************************/
+
+  /**
+   * Report tasks' progress and results to <code>callbacks</code> from now on.
+   * Call {@link #replay()} once the host is ready to show them.
+   */
+  public void attach(Callbacks callbacks) {
+    mCallbacks = new WeakReference<Callbacks>(callbacks);
+
+    // Time how long the new host waits for its first progress update.
+    for (BackgroundTask<?> task : mTasks.values()) {
+      if (task.getStatus() == BackgroundTask.Status.RUNNING) {
+        LifecycleMetrics.startFirstProgressTimer();
+        break;
+      }
+    }
+  }
+
+  /**
+   * Replay the latest state of every task to the attached host. The first time
+   * around, this is also where we resume any tasks that a previous process was
+   * killed in the middle of, once their journals have been read on a worker.
+   */
+  public void replay() {
+    // Finished tasks are only left with their snapshot. The host may start or
+    // cancel tasks from its callbacks, so iterate over a copy of the IDs.
+    for (String id : new ArrayList<String>(mSnapshots.keySet())) {
+      replay(id);
+    }
+    if (!mJournalsRestored && mJournalDir != null) {
+      mJournalsRestored = true;
+      restoreJournals(mJournalDir);
+    }
+  }
+
+  /**
+   * Stop reporting to the attached host. Events that arrive before the next one
+   * attaches are collapsed into each task's {@link TaskSnapshot}.
+   *
+   * @return the host that was attached, if it is still around.
+   */
+  public Callbacks detach() {
+    Callbacks callbacks = mCallbacks.get();
+    mCallbacks.clear();
+    return callbacks;
+  }
+
+  /**
+   * Let go of every task for good, once the host is finishing rather than being
+   * recreated. Running work is handed over to the {@link TaskEngine}, which
+   * only cancels it if nobody comes back for it within its idle timeout.
+   */
+  public void destroy() {
+    for (BackgroundTask<?> task : mTasks.values()) {
+      if (task.getStatus() == BackgroundTask.Status.RUNNING) {
+        TaskEngine.detach(task, this);
+      }
+    }
+    mPartialReplay.cancel();
+    mDestroyed = true;
+  }
+
+  /*************************/
+  /***** TASK HOST API *****/
+  /*************************/
+
+  /**
+   * Start the default background task.
+   */
+  public void start() {
+    start(DEFAULT_TASK_ID);
+  }
+
+  /**
+   * Start the background task with the given ID, unless it is already running.
+   */
+  public void start(String id) {
+    start(id, 0);
+  }
+
+  /**
+   * Start the background task with the given ID, delivering its progress no
+   * more often than every <code>minProgressIntervalMillis</code> milliseconds.
+   */
+  public void start(String id, long minProgressIntervalMillis) {
+    start(id, TaskPriority.USER_VISIBLE, minProgressIntervalMillis);
+  }
+
+  /**
+   * Start the background task with the given ID and priority, with no
+   * deadline.
+   */
+  public void start(String id, TaskPriority priority, long minProgressIntervalMillis) {
+    start(id, priority, minProgressIntervalMillis, 0);
+  }
+
+  /**
+   * Start the background task with the given ID and priority. Queued tasks run
+   * most urgent first, and {@link TaskPriority#BACKGROUND} tasks pause while
+   * user-visible work is waiting. A task still running
+   * <code>deadlineMillis</code> milliseconds after it was started is cancelled
+   * and reported through {@link Callbacks#onTimedOut(String)}; zero means no
+   * deadline. Joining work that is already in flight keeps its deadline.
+   */
+  public void start(String id, TaskPriority priority, long minProgressIntervalMillis,
+      long deadlineMillis) {
+    start(id, priority, minProgressIntervalMillis, deadlineMillis, null);
+  }
+
+  /**
+   * Start the background task with the given ID, carrying on from
+   * <code>journal</code> if the task has to be started afresh.
+   */
+  private void start(String id, TaskPriority priority, long minProgressIntervalMillis,
+      long deadlineMillis, File journal) {
+    if (isRunning(id)) {
+      return;
+    }
+    String key = engineKey(id);
+    if (mResults.get(key) != null) {
+      // We already have the result for this input, so report it right away.
+      Callbacks callbacks = mCallbacks.get();
+      if (callbacks != null) {
+        callbacks.onPostExecute(id);
+      }
+      return;
+    }
+    forget(id);
+    // Join identical work that is already running (perhaps on behalf of
+    // another screen, or of a previous instance of this one), or start it
+    // ourselves.
+    BackgroundTask<?> task = TaskEngine.attach(key, this);
+    if (task == null) {
+      DummyTask dummy = new DummyTask(id, this, mJournalDir, mTraceSource);
+      dummy.setMinProgressInterval(minProgressIntervalMillis);
+      dummy.setPriority(priority);
+      dummy.setClock(mClock);
+      dummy.setDeadline(deadlineMillis);
+      if (journal != null) {
+        dummy.resumeFrom(journal);
+      }
+      task = dummy;
+      mTasks.put(id, task);
+      TaskEngine.execute(key, dummy, mExecutor);
+    } else {
+      mTasks.put(id, task);
+      if (task.getStatus() == BackgroundTask.Status.FINISHED) {
+        // It finished after its previous owner went away; report the result.
+        onPostExecute(task);
+      }
+    }
+  }
+
+  /**
+   * Start a task with the given ID that pushes <code>items</code> through
+   * <code>pipeline</code>, unless it is already running. Every stage runs on
+   * its own thread, and the stages' combined progress is reported through the
+   * usual {@link Callbacks#onProgressUpdate}. Once the task finishes, its
+   * output is available from {@link #getPipelineResult(String)}.
+   */
+  public <S, T> void startPipeline(String id, Pipeline<S, T> pipeline,
+      Collection<? extends S> items) {
+    if (!isRunning(id)) {
+      forget(id);
+      PipelineTask<S, T> task = new PipelineTask<S, T>(id, this, pipeline, items);
+      task.setClock(mClock);
+      mTasks.put(id, task);
+      task.execute(mExecutor);
+    }
+  }
+
+  /**
+   * Start a task with the given ID that splits the dummy work into
+   * <code>subtasks</code> pieces run in parallel, unless it is already running.
+   * The pieces' weighted progress is combined into the usual
+   * {@link Callbacks#onProgressUpdate}, and the result is available from
+   * {@link #getResult(String)} once it finishes.
+   */
+  public void startSplit(String id, int subtasks) {
+    if (!isRunning(id)) {
+      forget(id);
+      SplitTask task = new SplitTask(id, this, subtasks, mTraceSource);
+      task.setClock(mClock);
+      mTasks.put(id, task);
+      task.execute(mExecutor);
+    }
+  }
+
+  /**
+   * Start a task with the given ID that runs the dummy work's iterations in
+   * parallel, unless it is already running. Workers claim
+   * <code>chunkSize</code> iterations at a time, so the load balances itself
+   * across cores, and cancelling the task stops every worker within one
+   * iteration. The result is available from {@link #getResult(String)}.
+   */
+  public void startParallel(String id, int chunkSize) {
+    if (!isRunning(id)) {
+      forget(id);
+      ParallelTask task = new ParallelTask(id, this, chunkSize, mTraceSource);
+      task.setClock(mClock);
+      mTasks.put(id, task);
+      task.execute(mExecutor);
+    }
+  }
+
+  /**
+   * Run tasks started from now on with the given executor instead of
+   * {@link TaskExecutors#getDefault()}.
+   */
+  public void setExecutor(Executor executor) {
+    mExecutor = executor;
+  }
+
+  /**
+   * Run tasks started from now on against the given clock instead of
+   * {@link TaskClock#SYSTEM}, e.g. a {@link VirtualClock} to play them out in
+   * virtual time.
+   */
+  public void setClock(TaskClock clock) {
+    mClock = clock;
+  }
+
+  /**
+   * Cancel the default background task.
+   */
+  public void cancel() {
+    cancel(DEFAULT_TASK_ID);
+  }
+
+  /**
+   * Cancel the background task with the given ID. If the task is shared with
+   * someone else, we only stop listening to it. Otherwise it is paused for the
+   * {@link TaskEngine}'s cancel grace period, during which {@link #start(String)}
+   * resumes it where it left off; after that, the worker is interrupted so that
+   * it stops without waiting out its current step.
+   */
+  public void cancel(String id) {
+    if (isRunning(id)) {
+      BackgroundTask<?> task = mTasks.get(id);
+      if (!TaskEngine.leave(task, this)) {
+        // The work carries on for others, or is only paused for now; either
+        // way, report the cancellation ourselves (while the task is still
+        // current), and forget about it.
+        onCancelled(task);
+        mTasks.remove(id);
+      }
+    }
+  }
+
+  /**
+   * Cancel every background task, as if by {@link #cancel(String)}.
+   */
+  public void cancelAll() {
+    // cancel() may forget the task, so iterate over a copy of the IDs.
+    for (String id : new ArrayList<String>(mTasks.keySet())) {
+      cancel(id);
+    }
+  }
+
+  /**
+   * Returns the current state of the default background task.
+   */
+  public boolean isRunning() {
+    return isRunning(DEFAULT_TASK_ID);
+  }
+
+  /**
+   * Returns true if the task with the given ID has been started and has not
+   * yet finished or been cancelled.
+   */
+  public boolean isRunning(String id) {
+    BackgroundTask<?> task = mTasks.get(id);
+    return task != null && task.getStatus() == BackgroundTask.Status.RUNNING && !task.isCancelled();
+  }
+
+  /**
+   * Returns the result of the task with the given ID, or null if it hasn't
+   * finished or its result has been evicted from the cache.
+   */
+  public int[] getResult(String id) {
+    return mResults.get(engineKey(id));
+  }
+
+  /**
+   * Returns the output of the pipeline task with the given ID, or null if it
+   * hasn't finished.
+   */
+  public List<?> getPipelineResult(String id) {
+    BackgroundTask<?> task = mTasks.get(id);
+    return task instanceof PipelineTask ? ((PipelineTask<?, ?>) task).getResult() : null;
+  }
+
+  /**
+   * Returns the task layer's counters, with the queue and thread usage of the
+   * executor this host runs its tasks on.
+   */
+  public TaskMetrics.Snapshot getMetrics() {
+    return TaskMetrics.snapshot(mExecutor);
+  }
+
+  /**
+   * Returns the cache holding finished tasks' results, e.g. to read its hit and
+   * miss counts or to pass memory pressure on to it.
+   */
+  public ResultCache<int[]> getResultCache() {
+    return mResults;
+  }
+
+  /**
+   * Returns the status of the task with the given ID, or null if no such task
+   * has been started.
+   */
+  public BackgroundTask.Status getStatus(String id) {
+    BackgroundTask<?> task = mTasks.get(id);
+    if (task != null) {
+      return task.getStatus();
+    }
+    // Finished tasks whose result went to the cache are only left with this.
+    TaskSnapshot snapshot = mSnapshots.get(id);
+    return snapshot != null && snapshot.getPhase() == TaskSnapshot.Phase.FINISHED
+        ? BackgroundTask.Status.FINISHED : null;
+  }
+
+  /**
+   * Prints task counters, result cache statistics, and cancellation and
+   * delivery latencies.
+   */
+  public void dump(String prefix, PrintWriter writer) {
+    TaskMetrics.dump(prefix, mExecutor, writer);
+    writer.print(prefix);
+    writer.println(mResults);
+    BackgroundTask.getCancelLatency().dump(prefix, "Cancel latency", writer);
+    ProgressChannel.getDeliveryLatency().dump(prefix, "Progress latency", writer);
+    FrameScheduler.getQueueDelay().dump(prefix, "Main queue delay", writer);
+  }
+
+  /*****************************/
+  /***** TASK LISTENER API *****/
+  /*****************************/
+
+  /**
+   * Returns false if we hold a different task for <code>task</code>'s ID. A
+   * task that was cancelled and then replaced by a new run under the same ID
+   * keeps sending events until its worker stops; those must not reach the host
+   * or overwrite the new run's snapshot. (While {@link #start} attaches to a
+   * task, nothing is held for its ID yet.)
+   */
+  private boolean isCurrent(BackgroundTask<?> task) {
+    BackgroundTask<?> current = mTasks.get(task.getId());
+    return current == null || current == task;
+  }
+
+  @Override
+  public void onPreExecute(BackgroundTask<?> task) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    // Results held from an earlier run with this ID are stale now.
+    mHeldPartials.remove(task.getId());
+    // Proxy the call to the host, if there is one.
+    snapshot(task.getId()).recordStart(callbacks != null);
+    if (callbacks != null) {
+      callbacks.onPreExecute(task.getId());
+    }
+  }
+
+  @Override
+  public void onProgressUpdate(BackgroundTask<?> task, int percent) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    // Proxy the call to the host, if there is one.
+    snapshot(task.getId()).recordProgress(percent);
+    if (callbacks != null) {
+      callbacks.onProgressUpdate(task.getId(), percent);
+      LifecycleMetrics.markProgressDelivered();
+    }
+  }
+
+  @Override
+  public void onCancelled(BackgroundTask<?> task) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    mHeldPartials.remove(task.getId());
+    // Proxy the call to the host, if there is one.
+    snapshot(task.getId()).recordEnd(TaskSnapshot.Phase.CANCELLED, callbacks != null);
+    if (callbacks != null) {
+      callbacks.onCancelled(task.getId());
+    }
+  }
+
+  @Override
+  public void onTimedOut(BackgroundTask<?> task) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    mHeldPartials.remove(task.getId());
+    // Proxy the call to the host, if there is one.
+    snapshot(task.getId()).recordEnd(TaskSnapshot.Phase.TIMED_OUT, callbacks != null);
+    if (callbacks != null) {
+      callbacks.onTimedOut(task.getId());
+    }
+  }
+
+  @Override
+  public void onFailed(BackgroundTask<?> task) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    mHeldPartials.remove(task.getId());
+    // Proxy the call to the host, if there is one.
+    snapshot(task.getId()).recordEnd(TaskSnapshot.Phase.FAILED, callbacks != null);
+    if (callbacks != null) {
+      callbacks.onFailed(task.getId());
+    }
+  }
+
+  @Override
+  public void onTransferProgress(BackgroundTask<?> task, long bytes, long totalBytes,
+      long bytesPerSecond, long etaMillis) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    // Proxy the call to the host, if it wants it.
+    if (callbacks instanceof TransferCallbacks) {
+      ((TransferCallbacks) callbacks).onTransferProgress(task.getId(), bytes, totalBytes,
+          bytesPerSecond, etaMillis);
+    }
+  }
+
+  @Override
+  public void onPartialResults(BackgroundTask<?> task, List<?> items) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    ArrayList<Object> held = mHeldPartials.get(task.getId());
+    if (callbacks == null || held != null) {
+      // Hold on to them until the next host attaches, or queue them behind the
+      // held results that are still being replayed.
+      if (held == null) {
+        held = new ArrayList<Object>();
+        mHeldPartials.put(task.getId(), held);
+      }
+      held.addAll(items);
+      if (callbacks != null) {
+        mPartialReplay.schedule();
+      }
+    } else if (callbacks instanceof PartialResultCallbacks) {
+      ((PartialResultCallbacks) callbacks).onPartialResults(task.getId(), items);
+    }
+  }
+
+  @Override
+  public void onPostExecute(BackgroundTask<?> task) {
+    if (!isCurrent(task)) {
+      return;
+    }
+    Callbacks callbacks = mCallbacks.get();
+    if (task.getResult() instanceof int[]) {
+      // The cache is the only owner of the result from now on, so that
+      // evicting it frees the memory; the snapshot remembers the outcome.
+      mResults.put(engineKey(task.getId()), (int[]) task.getResult());
+      mTasks.remove(task.getId());
+    }
+    // Proxy the call to the host, if there is one, unless held results still
+    // have to go out first (see replayNextPartials()).
+    boolean deliver = callbacks != null && !mHeldPartials.containsKey(task.getId());
+    snapshot(task.getId()).recordEnd(TaskSnapshot.Phase.FINISHED, deliver);
+    if (deliver) {
+      callbacks.onPostExecute(task.getId());
+    }
+  }
+
+  /**
+   * Bring a newly attached host up to date with the task with the given ID: at
+   * most a start and the latest progress for a running task, or its outcome if
+   * that was missed, plus any partial results that were held in the meantime.
+   */
+  private void replay(String id) {
+    Callbacks callbacks = mCallbacks.get();
+    if (callbacks == null) {
+      return;
+    }
+    BackgroundTask<?> task = mTasks.get(id);
+    TaskSnapshot snapshot = snapshot(id);
+    switch (snapshot.getPhase()) {
+      case RUNNING:
+        if (task == null || task.isCancelled()) {
+          break;
+        }
+        if (snapshot.isStartPending()) {
+          callbacks.onPreExecute(id);
+        }
+        if (mHeldPartials.containsKey(id)) {
+          mPartialReplay.schedule();
+        }
+        if (snapshot.hasProgress()) {
+          callbacks.onProgressUpdate(id, snapshot.getPercent());
+          LifecycleMetrics.markProgressDelivered();
+        }
+        break;
+      case CANCELLED:
+        mHeldPartials.remove(id);
+        if (snapshot.isEndPending()) {
+          callbacks.onCancelled(id);
+        }
+        break;
+      case TIMED_OUT:
+        mHeldPartials.remove(id);
+        if (snapshot.isEndPending()) {
+          callbacks.onTimedOut(id);
+        }
+        break;
+      case FAILED:
+        mHeldPartials.remove(id);
+        if (snapshot.isEndPending()) {
+          callbacks.onFailed(id);
+        }
+        break;
+      case FINISHED:
+        if (mHeldPartials.containsKey(id)) {
+          // The outcome follows the held results; see replayNextPartials().
+          mPartialReplay.schedule();
+          return;
+        }
+        if (snapshot.isEndPending()) {
+          callbacks.onPostExecute(id);
+        }
+        break;
+    }
+    snapshot.clearPending();
+  }
+
+  /**
+   * Hand the next batch of held partial results to the host, at most
+   * {@link PartialResultChannel#DEFAULT_MAX_BATCH} of them per frame like live
+   * ones, and a finished task's outcome once the last of its results is out.
+   * Stops while no host is attached; the next {@link #replay} picks up again.
+   */
+  private void replayNextPartials() {
+    Callbacks callbacks = mCallbacks.get();
+    if (callbacks == null || mHeldPartials.isEmpty()) {
+      return;
+    }
+    String id = mHeldPartials.keySet().iterator().next();
+    ArrayList<Object> held = mHeldPartials.get(id);
+    if (callbacks instanceof PartialResultCallbacks) {
+      List<Object> batch =
+          held.subList(0, Math.min(held.size(), PartialResultChannel.DEFAULT_MAX_BATCH));
+      ((PartialResultCallbacks) callbacks).onPartialResults(id, new ArrayList<Object>(batch));
+      batch.clear();
+    } else {
+      // This host doesn't want them.
+      held.clear();
+    }
+    if (held.isEmpty()) {
+      mHeldPartials.remove(id);
+      TaskSnapshot snapshot = snapshot(id);
+      if (snapshot.getPhase() == TaskSnapshot.Phase.FINISHED && snapshot.isEndPending()) {
+        snapshot.clearPending();
+        callbacks.onPostExecute(id);
+      }
+    }
+    if (!mHeldPartials.isEmpty()) {
+      mPartialReplay.schedule();
+    }
+  }
+
+  /**
+   * Look for journals left behind by runs that a previous process was killed in
+   * the middle of, off the main thread, and restart those tasks from their last
+   * checkpoint. Journals of runs that are still going in this process are
+   * listed too, but restarting those tasks only joins the runs.
+   */
+  private void restoreJournals(final File dir) {
+    mExecutor.execute(new Runnable() {
+      @Override
+      public void run() {
+        final List<File> journals = CheckpointJournal.list(dir);
+        if (journals.isEmpty()) {
+          return;
+        }
+        sHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            if (mDestroyed) {
+              return;
+            }
+            for (File journal : journals) {
+              start(CheckpointJournal.idOf(journal), TaskPriority.USER_VISIBLE, 0, 0, journal);
+            }
+          }
+        });
+      }
+    });
+  }
+
+  /**
+   * Stop listening to whatever ran under <code>id</code> before, which is done
+   * or on its way out, so that its late events can't be mistaken for those of
+   * the next task with that ID.
+   */
+  private void forget(String id) {
+    BackgroundTask<?> previous = mTasks.remove(id);
+    if (previous != null) {
+      previous.removeListener(this);
+    }
+  }
+
+  /**
+   * Returns the {@link TaskEngine} key for the work done by the task with the
+   * given ID, which also keys its result in the cache. Every DummyTask in the
+   * app does the same work, and the split and parallel tasks do that work too,
+   * so the key must match theirs.
+   */
+  private static String engineKey(String id) {
+    return "dummy:" + id;
+  }
+
+  private TaskSnapshot snapshot(String id) {
+    TaskSnapshot snapshot = mSnapshots.get(id);
+    if (snapshot == null) {
+      snapshot = new TaskSnapshot();
+      mSnapshots.put(id, snapshot);
+    }
+    return snapshot;
+  }
+
+}
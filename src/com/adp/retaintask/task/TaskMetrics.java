@@ -0,0 +1,202 @@
+package com.adp.retaintask.task;
+
+import java.io.PrintWriter;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.adp.retaintask.util.JankMonitor;
+import com.adp.retaintask.util.LatencyHistogram;
+
+/**
+ * TaskMetrics keeps process-wide counters for the task layer: how many tasks
+ * were started, completed, cancelled, timed out and failed, how long they ran, how
+ * much of their deadline each type of task used, how much progress was
+ * published versus actually delivered, and how much main-thread time the task
+ * listeners took. Counters are lock-free and updated as a side effect of
+ * running tasks; {@link #snapshot(Executor)} reads them, along with the state
+ * of an executor, into an immutable {@link Snapshot}.
+ */
+public final class TaskMetrics {
+  private static final AtomicLong sStarted = new AtomicLong();
+  private static final AtomicLong sCompleted = new AtomicLong();
+  private static final AtomicLong sCancelled = new AtomicLong();
+  private static final AtomicLong sTimedOut = new AtomicLong();
+  private static final AtomicLong sFailed = new AtomicLong();
+  private static final AtomicLong sPublished = new AtomicLong();
+  private static final AtomicLong sDelivered = new AtomicLong();
+  private static final AtomicLong sCallbackCount = new AtomicLong();
+  private static final AtomicLong sCallbackNanos = new AtomicLong();
+  private static final LatencyHistogram sDuration = new LatencyHistogram("ms");
+  private static final LatencyHistogram sCallbackTime = new LatencyHistogram("us");
+  // Percent of the deadline used, by task class. Only accessed on the main
+  // thread.
+  private static final HashMap<String, LatencyHistogram> sDeadlineUsage =
+      new HashMap<String, LatencyHistogram>();
+
+  private TaskMetrics() {}
+
+  /**
+   * A point-in-time copy of the counters. Fields that don't apply (e.g. the
+   * queue depth of an executor that isn't a {@link ThreadPoolExecutor}) are -1.
+   */
+  public static final class Snapshot {
+    public final long started;
+    public final long completed;
+    public final long cancelled;
+    public final long timedOut;
+    public final long failed;
+    public final long running;
+    public final int queueDepth;
+    public final int activeThreads;
+    public final int poolSize;
+    /** Active threads over pool size, from 0 to 1. */
+    public final float utilization;
+    public final long meanDurationMillis;
+    public final long p99DurationMillis;
+    public final long progressPublished;
+    public final long progressDelivered;
+    /** Progress values that were superseded before they could be delivered. */
+    public final long progressCoalesced;
+    public final long callbackCount;
+    public final long callbackTimeMillis;
+    public final long p99CallbackMicros;
+
+    Snapshot(Executor executor) {
+      started = sStarted.get();
+      completed = sCompleted.get();
+      cancelled = sCancelled.get();
+      timedOut = sTimedOut.get();
+      failed = sFailed.get();
+      running = started - completed - cancelled - timedOut - failed;
+      if (executor instanceof ThreadPoolExecutor) {
+        ThreadPoolExecutor pool = (ThreadPoolExecutor) executor;
+        queueDepth = pool.getQueue().size();
+        activeThreads = pool.getActiveCount();
+        poolSize = pool.getCorePoolSize();
+        utilization = poolSize > 0 ? Math.min(1f, (float) activeThreads / poolSize) : 0;
+      } else {
+        queueDepth = -1;
+        activeThreads = -1;
+        poolSize = -1;
+        utilization = -1;
+      }
+      meanDurationMillis = sDuration.getMean();
+      p99DurationMillis = sDuration.getPercentile(99);
+      progressDelivered = sDelivered.get();
+      progressPublished = Math.max(sPublished.get(), progressDelivered);
+      progressCoalesced = progressPublished - progressDelivered;
+      callbackCount = sCallbackCount.get();
+      callbackTimeMillis = sCallbackNanos.get() / 1000000;
+      p99CallbackMicros = sCallbackTime.getPercentile(99);
+    }
+
+    @Override
+    public String toString() {
+      // Without a pool, there is no queue or thread usage to print.
+      boolean pool = poolSize >= 0;
+      return "started=" + started + " completed=" + completed + " cancelled=" + cancelled
+          + " timedOut=" + timedOut + " failed=" + failed + " running=" + running
+          + " queue=" + (pool ? String.valueOf(queueDepth) : "n/a")
+          + " active=" + (pool ? activeThreads + "/" + poolSize : "n/a")
+          + " utilization=" + (pool ? Math.round(utilization * 100) + "%" : "n/a")
+          + " duration(mean=" + meanDurationMillis + "ms p99=" + p99DurationMillis + "ms)"
+          + " progress(published=" + progressPublished + " delivered=" + progressDelivered
+          + " coalesced=" + progressCoalesced + ")" + " callbacks(n=" + callbackCount
+          + " total=" + callbackTimeMillis + "ms p99=" + p99CallbackMicros + "us)";
+    }
+  }
+
+  /**
+   * Returns the current counters, plus the queue and thread usage of
+   * <code>executor</code>.
+   */
+  public static Snapshot snapshot(Executor executor) {
+    return new Snapshot(executor);
+  }
+
+  /**
+   * Returns how much of their deadline tasks of class <code>type</code> used,
+   * in percent, or null if none with a deadline has finished. Must be called
+   * on the main thread.
+   */
+  public static LatencyHistogram getDeadlineUsage(String type) {
+    return sDeadlineUsage.get(type);
+  }
+
+  /**
+   * Prints a {@link #snapshot(Executor)}, and the deadline usage of each type
+   * of task. Must be called on the main thread.
+   */
+  public static void dump(String prefix, Executor executor, PrintWriter writer) {
+    writer.print(prefix);
+    writer.print("Tasks: ");
+    writer.println(snapshot(executor));
+    for (Map.Entry<String, LatencyHistogram> entry : sDeadlineUsage.entrySet()) {
+      entry.getValue().dump(prefix + "  ", "Deadline used by " + entry.getKey(), writer);
+    }
+  }
+
+  static void taskStarted() {
+    sStarted.incrementAndGet();
+  }
+
+  static void taskEnded(BackgroundTask.Status status, long durationNanos) {
+    switch (status) {
+      case CANCELLED:
+        sCancelled.incrementAndGet();
+        break;
+      case TIMED_OUT:
+        sTimedOut.incrementAndGet();
+        break;
+      case FAILED:
+        sFailed.incrementAndGet();
+        break;
+      default:
+        sCompleted.incrementAndGet();
+        break;
+    }
+    sDuration.record(durationNanos / 1000000);
+  }
+
+  /**
+   * Record that a task of class <code>type</code> finished (or was cut off)
+   * after using <code>percent</code> of its deadline. Called on the main
+   * thread.
+   */
+  static void deadlineUsed(String type, long percent) {
+    LatencyHistogram usage = sDeadlineUsage.get(type);
+    if (usage == null) {
+      usage = new LatencyHistogram("%");
+      sDeadlineUsage.put(type, usage);
+    }
+    usage.record(percent);
+  }
+
+  /**
+   * Record that <code>count</code> more progress values were published.
+   * Called on the main thread, in bulk, to keep publishing itself cheap.
+   */
+  static void progressPublished(long count) {
+    sPublished.addAndGet(count);
+  }
+
+  static void progressDelivered() {
+    sDelivered.incrementAndGet();
+  }
+
+  /**
+   * Record that listeners spent <code>nanos</code> handling one event on the
+   * main thread; <code>event</code> is the {@link com.adp.retaintask.util.Trace}
+   * ID of the callback.
+   */
+  static void callbackRan(int event, long nanos) {
+    sCallbackCount.incrementAndGet();
+    sCallbackNanos.addAndGet(nanos);
+    sCallbackTime.record(nanos / 1000);
+    JankMonitor.record(event, nanos);
+  }
+
+}
@@ -0,0 +1,13 @@
+package com.adp.retaintask.task;
+
+/**
+ * How urgently a task's result is needed, from most to least urgent.
+ */
+public enum TaskPriority {
+  /** The user is looking at the result right now. */
+  USER_VISIBLE,
+  /** The result will probably be needed shortly, e.g. the next page. */
+  VISIBLE_SOON,
+  /** Prefetching and other work nobody is waiting for. */
+  BACKGROUND
+}
@@ -0,0 +1,77 @@
+package com.adp.retaintask.task;
+
+/**
+ * TaskSnapshot collapses a task's event stream into its latest state: the
+ * phase it is in, the last progress value, and whether its start or its
+ * outcome happened while nobody was listening. Replaying a snapshot therefore
+ * takes a constant number of callbacks, however many updates were missed.
+ * <p>
+ * Snapshots are only accessed on the main thread.
+ */
+public final class TaskSnapshot {
+
+  public enum Phase {
+    RUNNING, CANCELLED, TIMED_OUT, FAILED, FINISHED
+  }
+
+  private Phase mPhase = Phase.RUNNING;
+  private int mPercent;
+  private boolean mHasProgress;
+  private boolean mStartPending;
+  private boolean mEndPending;
+
+  /**
+   * Record that the task started. <code>delivered</code> is false if the event
+   * could not be reported to anyone.
+   */
+  public void recordStart(boolean delivered) {
+    mPhase = Phase.RUNNING;
+    mPercent = 0;
+    mHasProgress = false;
+    mStartPending = !delivered;
+    mEndPending = false;
+  }
+
+  public void recordProgress(int percent) {
+    mPercent = percent;
+    mHasProgress = true;
+  }
+
+  /**
+   * Record the task's outcome. <code>delivered</code> is false if the event
+   * could not be reported to anyone.
+   */
+  public void recordEnd(Phase phase, boolean delivered) {
+    mPhase = phase;
+    mEndPending = !delivered;
+  }
+
+  /**
+   * Forget about missed events once they have been replayed.
+   */
+  public void clearPending() {
+    mStartPending = false;
+    mEndPending = false;
+  }
+
+  public Phase getPhase() {
+    return mPhase;
+  }
+
+  public int getPercent() {
+    return mPercent;
+  }
+
+  public boolean hasProgress() {
+    return mHasProgress;
+  }
+
+  public boolean isStartPending() {
+    return mStartPending;
+  }
+
+  public boolean isEndPending() {
+    return mEndPending;
+  }
+
+}
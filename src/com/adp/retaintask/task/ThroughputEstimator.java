@@ -0,0 +1,61 @@
+package com.adp.retaintask.task;
+
+/**
+ * ThroughputEstimator turns a stream of cumulative byte counts into a smoothed
+ * transfer rate and an estimated time to completion. The rate is an
+ * exponentially weighted moving average of the rate over successive sampling
+ * windows, so a single stall or burst doesn't make the ETA jump around.
+ * <p>
+ * An estimator is fed by one worker thread; the latest estimates may be read
+ * from any thread.
+ */
+public final class ThroughputEstimator {
+  /** The shortest window a rate sample is taken over. */
+  public static final long SAMPLE_INTERVAL_MILLIS = 250;
+  /** The weight of the newest sample in the moving average. */
+  private static final double ALPHA = 0.3;
+
+  private long mSampleTime = -1;
+  private long mSampleBytes;
+  private double mRate;
+  private volatile long mBytesPerSecond = -1;
+  private volatile long mEtaMillis = -1;
+
+  /**
+   * Record that <code>done</code> out of <code>total</code> bytes have been
+   * transferred as of <code>nowMillis</code>.
+   */
+  public void update(long done, long total, long nowMillis) {
+    if (mSampleTime < 0) {
+      mSampleTime = nowMillis;
+      mSampleBytes = done;
+      return;
+    }
+    long elapsed = nowMillis - mSampleTime;
+    if (elapsed < SAMPLE_INTERVAL_MILLIS) {
+      return;
+    }
+    double sample = (done - mSampleBytes) * 1000.0 / elapsed;
+    mRate = mBytesPerSecond < 0 ? sample : mRate + ALPHA * (sample - mRate);
+    mSampleTime = nowMillis;
+    mSampleBytes = done;
+    mBytesPerSecond = (long) mRate;
+    mEtaMillis = mRate > 0 && total >= done ? (long) ((total - done) * 1000 / mRate) : -1;
+  }
+
+  /**
+   * Returns the smoothed rate, or -1 until enough time has passed to tell.
+   */
+  public long getBytesPerSecond() {
+    return mBytesPerSecond;
+  }
+
+  /**
+   * Returns the estimated time until the transfer completes, or -1 if it
+   * can't be estimated yet.
+   */
+  public long getEtaMillis() {
+    return mEtaMillis;
+  }
+
+}
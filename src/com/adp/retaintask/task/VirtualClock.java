@@ -0,0 +1,156 @@
+package com.adp.retaintask.task;
+
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+
+/**
+ * VirtualClock is a deterministic, virtual-time {@link TaskClock} and
+ * {@link Executor} for simulating the task layer without waiting in real time.
+ * Work handed to {@link #execute} is queued rather than run, and is only run
+ * by {@link #runUntilIdle()} or {@link #advanceBy(long)}, in order of due time
+ * and then of submission, on the calling thread.
+ * <p>
+ * Time stands still except when the driver advances it or when running work
+ * calls {@link #sleep(long)}, which moves the clock forward at once. The model
+ * is therefore a single worker that owns the (virtual) CPU while it runs: the
+ * same inputs always produce the same timeline, however many tasks there are.
+ * <p>
+ * The clock is thread-safe, so it may also be handed to tasks that fan their
+ * work out to other threads (such as {@link SplitTask} and
+ * {@link ParallelTask}), and read by the main thread while they run. Sleeps on
+ * those threads still each move the one clock forward, but in whatever order
+ * the threads get there, so such runs are not deterministic. Entries queued
+ * here are always run on the thread that drives the clock.
+ */
+public final class VirtualClock implements TaskClock, Executor {
+
+  private static final class Entry implements Comparable<Entry> {
+    final long mDueTime;
+    final long mSequence;
+    final Runnable mRunnable;
+
+    Entry(long dueTime, long sequence, Runnable runnable) {
+      mDueTime = dueTime;
+      mSequence = sequence;
+      mRunnable = runnable;
+    }
+
+    @Override
+    public int compareTo(Entry other) {
+      if (mDueTime != other.mDueTime) {
+        return mDueTime < other.mDueTime ? -1 : 1;
+      }
+      return mSequence < other.mSequence ? -1 : (mSequence == other.mSequence ? 0 : 1);
+    }
+  }
+
+  // All guarded by this. Entries are run without holding the lock, so that
+  // they can queue more work and sleep.
+  private final PriorityQueue<Entry> mQueue = new PriorityQueue<Entry>();
+  private long mNow;
+  private long mSequence;
+  private long mRunCount;
+
+  @Override
+  public synchronized long uptimeMillis() {
+    return mNow;
+  }
+
+  /**
+   * Moves the clock forward by <code>millis</code> right away.
+   */
+  @Override
+  public void sleep(long millis) throws InterruptedException {
+    if (Thread.interrupted()) {
+      throw new InterruptedException();
+    }
+    if (millis > 0) {
+      synchronized (this) {
+        mNow += millis;
+      }
+    }
+  }
+
+  /**
+   * Queue <code>command</code> to run at the current virtual time.
+   */
+  @Override
+  public void execute(Runnable command) {
+    schedule(command, 0);
+  }
+
+  /**
+   * Queue <code>command</code> to run <code>delayMillis</code> from now.
+   */
+  public synchronized void schedule(Runnable command, long delayMillis) {
+    mQueue.add(new Entry(mNow + Math.max(0, delayMillis), mSequence++, command));
+  }
+
+  /**
+   * Run queued work, including anything it queues in turn, until the queue is
+   * empty. The clock jumps ahead to each entry's due time.
+   *
+   * @return the number of entries run.
+   */
+  public int runUntilIdle() {
+    return runUntil(Long.MAX_VALUE);
+  }
+
+  /**
+   * Run every entry due within the next <code>millis</code>, then leave the
+   * clock at exactly that time (or later, if the work slept past it).
+   *
+   * @return the number of entries run.
+   */
+  public int advanceBy(long millis) {
+    long target;
+    synchronized (this) {
+      target = mNow + millis;
+    }
+    int count = runUntil(target);
+    synchronized (this) {
+      mNow = Math.max(mNow, target);
+    }
+    return count;
+  }
+
+  /**
+   * Returns the number of entries still queued.
+   */
+  public synchronized int getQueuedCount() {
+    return mQueue.size();
+  }
+
+  /**
+   * Returns the number of entries run since this clock was created.
+   */
+  public synchronized long getRunCount() {
+    return mRunCount;
+  }
+
+  private int runUntil(long target) {
+    int count = 0;
+    Entry entry;
+    while ((entry = next(target)) != null) {
+      entry.mRunnable.run();
+      count++;
+    }
+    return count;
+  }
+
+  /**
+   * Takes the first entry due by <code>target</code> off the queue, and moves
+   * the clock to its due time.
+   */
+  private synchronized Entry next(long target) {
+    Entry entry = mQueue.peek();
+    if (entry == null || entry.mDueTime > target) {
+      return null;
+    }
+    mQueue.poll();
+    mNow = Math.max(mNow, entry.mDueTime);
+    mRunCount++;
+    return entry;
+  }
+
+}
@@ -0,0 +1,82 @@
+package com.adp.retaintask.task;
+
+import java.util.HashSet;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * WorkerGroup keeps track of the pool threads working on one piece of forked
+ * work. Registered as a {@link CancellationToken.OnCancelListener}, it
+ * interrupts exactly those threads when the work is cancelled, and it lets the
+ * thread that forked the work wait until every worker is done with it, so
+ * that nothing is still writing to the work's results after it returns.
+ */
+final class WorkerGroup implements CancellationToken.OnCancelListener {
+  // Guarded by itself, so that we never interrupt a pool thread after it has
+  // moved on to other work.
+  private final HashSet<Thread> mThreads = new HashSet<Thread>();
+  private final CountDownLatch mDone;
+
+  /**
+   * @param workers how many workers will {@link #exit()}.
+   */
+  WorkerGroup(int workers) {
+    mDone = new CountDownLatch(workers);
+  }
+
+  /**
+   * Called by a worker on its own thread before it starts.
+   */
+  void enter() {
+    synchronized (mThreads) {
+      mThreads.add(Thread.currentThread());
+    }
+  }
+
+  /**
+   * Called by every worker when it is done, typically in a finally block.
+   */
+  void exit() {
+    synchronized (mThreads) {
+      mThreads.remove(Thread.currentThread());
+      // Don't leak an interrupt meant for us into the pool's next task.
+      Thread.interrupted();
+    }
+    mDone.countDown();
+  }
+
+  @Override
+  public void onCancel() {
+    synchronized (mThreads) {
+      for (Thread thread : mThreads) {
+        thread.interrupt();
+      }
+    }
+  }
+
+  /**
+   * Wait for every worker to exit. Its writes are visible once this returns.
+   */
+  void await() throws InterruptedException {
+    mDone.await();
+  }
+
+  /**
+   * Like {@link #await()}, but doesn't give up when the calling thread is
+   * interrupted; the interrupt is kept for the caller.
+   */
+  void awaitUninterruptibly() {
+    boolean interrupted = false;
+    while (true) {
+      try {
+        mDone.await();
+        break;
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+}
@@ -0,0 +1,145 @@
+package com.adp.retaintask.util;
+
+import java.io.PrintWriter;
+
+import android.annotation.TargetApi;
+import android.os.Build;
+import android.view.Choreographer;
+
+/**
+ * JankMonitor watches the main thread's frame intervals and blames overlong
+ * frames on the task callbacks that ran inside them. While it is
+ * {@link #start() started}, every task callback reports its cost through
+ * {@link #record(int, long)}; each callback type gets a cost histogram, and a
+ * frame that takes longer than {@link #JANK_THRESHOLD_NANOS} is attributed to
+ * the callback type that spent the most time in it.
+ * <p>
+ * Monitoring is opt-in, since it keeps a frame callback posted for as long as
+ * it runs, and needs {@link Choreographer} (Jelly Bean and above; elsewhere
+ * {@link #start()} does nothing). Callback types are {@link Trace} event IDs.
+ * All methods must be called on the main thread.
+ */
+public final class JankMonitor {
+  /** Frames longer than this (two frames at 60Hz) count as janky. */
+  public static final long JANK_THRESHOLD_NANOS = 33 * 1000 * 1000;
+
+  private static final LatencyHistogram[] sCallbackCost = new LatencyHistogram[Trace.EVENT_COUNT];
+  private static final long[] sJankyFrames = new long[Trace.EVENT_COUNT];
+  private static final LatencyHistogram sFrameInterval = new LatencyHistogram("ms");
+  private static long sFrames;
+  private static long sUnattributedJankyFrames;
+
+  // Time each callback type has spent on the main thread during this frame.
+  private static final long[] sFrameCost = new long[Trace.EVENT_COUNT];
+  private static FrameWatcher sWatcher;
+
+  private JankMonitor() {}
+
+  /**
+   * Start watching frames. Does nothing if already started, or before Jelly
+   * Bean.
+   */
+  public static void start() {
+    if (sWatcher == null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN) {
+      sWatcher = new FrameWatcher();
+      sWatcher.start();
+    }
+  }
+
+  /**
+   * Stop watching frames. The numbers gathered so far are kept.
+   */
+  public static void stop() {
+    if (sWatcher != null) {
+      sWatcher.stop();
+      sWatcher = null;
+    }
+  }
+
+  public static boolean isStarted() {
+    return sWatcher != null;
+  }
+
+  /**
+   * Record that callbacks of type <code>event</code> just spent
+   * <code>nanos</code> on the main thread. Ignored unless started.
+   */
+  public static void record(int event, long nanos) {
+    if (sWatcher != null && event > 0 && event < Trace.EVENT_COUNT) {
+      if (sCallbackCost[event] == null) {
+        sCallbackCost[event] = new LatencyHistogram("us");
+      }
+      sCallbackCost[event].record(nanos / 1000);
+      sFrameCost[event] += nanos;
+    }
+  }
+
+  /**
+   * Prints the frame interval distribution, and for each callback type its
+   * cost distribution and the number of janky frames blamed on it.
+   */
+  public static void dump(String prefix, PrintWriter writer) {
+    writer.print(prefix);
+    writer.print("Jank monitor: ");
+    writer.print(sWatcher != null ? "started" : "stopped");
+    writer.print(" frames=");
+    writer.print(sFrames);
+    writer.print(" unattributed janky frames=");
+    writer.println(sUnattributedJankyFrames);
+    sFrameInterval.dump(prefix + "  ", "Frame interval", writer);
+    for (int event = 1; event < Trace.EVENT_COUNT; event++) {
+      if (sCallbackCost[event] != null) {
+        sCallbackCost[event].dump(prefix + "  ", Trace.eventName(event)
+            + " (janky frames=" + sJankyFrames[event] + ")", writer);
+      }
+    }
+  }
+
+  private static void onFrame(long intervalNanos) {
+    sFrames++;
+    sFrameInterval.record(intervalNanos / 1000000);
+    if (intervalNanos > JANK_THRESHOLD_NANOS) {
+      int worst = 0;
+      for (int event = 1; event < Trace.EVENT_COUNT; event++) {
+        if (sFrameCost[event] > sFrameCost[worst]) {
+          worst = event;
+        }
+      }
+      if (worst > 0) {
+        sJankyFrames[worst]++;
+      } else {
+        sUnattributedJankyFrames++;
+      }
+    }
+    for (int event = 0; event < Trace.EVENT_COUNT; event++) {
+      sFrameCost[event] = 0;
+    }
+  }
+
+  /**
+   * Kept in its own class so that {@link Choreographer} is never loaded on
+   * releases that don't have it.
+   */
+  @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+  private static final class FrameWatcher implements Choreographer.FrameCallback {
+    private long mLastFrameNanos;
+
+    void start() {
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+
+    void stop() {
+      Choreographer.getInstance().removeFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+      if (mLastFrameNanos != 0) {
+        onFrame(frameTimeNanos - mLastFrameNanos);
+      }
+      mLastFrameNanos = frameTimeNanos;
+      Choreographer.getInstance().postFrameCallback(this);
+    }
+  }
+
+}
@@ -0,0 +1,108 @@
+package com.adp.retaintask.util;
+
+import java.io.PrintWriter;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * LatencyHistogram counts non-negative samples into power-of-two buckets. It
+ * is lock-free, never allocates after construction, and answers percentile
+ * queries to within a factor of two, which is plenty to spot regressions.
+ */
+public final class LatencyHistogram {
+  private static final int BUCKETS = 64;
+
+  private final String mUnit;
+  // Bucket i holds samples in [2^(i-1), 2^i); bucket 0 holds zeros.
+  private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+  private final AtomicLong mCount = new AtomicLong();
+  private final AtomicLong mSum = new AtomicLong();
+  private final AtomicLong mMax = new AtomicLong();
+
+  /**
+   * @param unit the unit samples are recorded in, used when dumping (e.g.
+   *          <code>"us"</code>).
+   */
+  public LatencyHistogram(String unit) {
+    mUnit = unit;
+  }
+
+  public void record(long value) {
+    if (value < 0) {
+      value = 0;
+    }
+    mBuckets.incrementAndGet(BUCKETS - Long.numberOfLeadingZeros(value));
+    mCount.incrementAndGet();
+    mSum.addAndGet(value);
+    long max;
+    while (value > (max = mMax.get()) && !mMax.compareAndSet(max, value)) {
+      // Retry until we either win or someone records a larger sample.
+    }
+  }
+
+  public long getCount() {
+    return mCount.get();
+  }
+
+  public long getMean() {
+    long count = mCount.get();
+    return count == 0 ? 0 : mSum.get() / count;
+  }
+
+  public long getMax() {
+    return mMax.get();
+  }
+
+  /**
+   * Returns an upper bound for the given percentile (0 to 100) of the samples
+   * recorded so far, or 0 if there are none.
+   */
+  public long getPercentile(double percentile) {
+    long count = mCount.get();
+    if (count == 0) {
+      return 0;
+    }
+    long rank = (long) Math.ceil(count * percentile / 100.0);
+    long seen = 0;
+    for (int i = 0; i < BUCKETS; i++) {
+      seen += mBuckets.get(i);
+      if (seen >= rank) {
+        long upper = i == 0 ? 0 : (i == BUCKETS - 1 ? Long.MAX_VALUE : (1L << i) - 1);
+        return Math.min(upper, mMax.get());
+      }
+    }
+    return mMax.get();
+  }
+
+  public void reset() {
+    for (int i = 0; i < BUCKETS; i++) {
+      mBuckets.set(i, 0);
+    }
+    mCount.set(0);
+    mSum.set(0);
+    mMax.set(0);
+  }
+
+  /**
+   * Prints a one-line summary: count, mean, p50, p90, p99 and max.
+   */
+  public void dump(String prefix, String label, PrintWriter writer) {
+    writer.print(prefix);
+    writer.print(label);
+    writer.print(": n=");
+    writer.print(getCount());
+    printStat(writer, " mean=", getMean());
+    printStat(writer, " p50=", getPercentile(50));
+    printStat(writer, " p90=", getPercentile(90));
+    printStat(writer, " p99=", getPercentile(99));
+    printStat(writer, " max=", getMax());
+    writer.println();
+  }
+
+  private void printStat(PrintWriter writer, String name, long value) {
+    writer.print(name);
+    writer.print(value);
+    writer.print(mUnit);
+  }
+
+}
@@ -0,0 +1,186 @@
+package com.adp.retaintask.util;
+
+import java.io.PrintWriter;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+/**
+ * LeakWatchdog checks that hosts we are done with actually get garbage
+ * collected. Each {@link #watch watched} object is tracked through a weak
+ * reference; if it is still reachable {@link #DEADLINE_MILLIS} later (after
+ * nudging the collector), something is retaining it and it is reported as a
+ * leak, both in the log and in {@link #dump}.
+ * <p>
+ * Watching is opt-in (e.g. for debug builds), since nudging the collector
+ * means a full collection and a wait for finalizers. That work is done on a
+ * background thread, never on the main thread. Methods must be called on the
+ * main thread.
+ */
+public final class LeakWatchdog {
+  private static final String TAG = LeakWatchdog.class.getSimpleName();
+
+  /** How long a watched object has to become unreachable. */
+  public static final long DEADLINE_MILLIS = 5000;
+  /** How many leak reports are kept for {@link #dump}. */
+  private static final int MAX_REPORTS = 16;
+
+  private static final class Watch extends WeakReference<Object> {
+    final String mDescription;
+    final long mWatchedAt;
+
+    Watch(Object referent, String description, ReferenceQueue<Object> queue) {
+      super(referent, queue);
+      mDescription = description;
+      mWatchedAt = SystemClock.uptimeMillis();
+    }
+  }
+
+  private static final ReferenceQueue<Object> sQueue = new ReferenceQueue<Object>();
+  private static final HashSet<Watch> sWatches = new HashSet<Watch>();
+  private static final List<String> sReports = new ArrayList<String>();
+  private static final Handler sHandler = new Handler(Looper.getMainLooper());
+  // Its thread is only created on first use.
+  private static final Executor sCollector = Executors.newSingleThreadExecutor(
+      new ThreadFactory() {
+        @Override
+        public Thread newThread(Runnable r) {
+          Thread thread = new Thread(r, TAG);
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+  private static boolean sStarted;
+  private static int sLeakCount;
+
+  private LeakWatchdog() {}
+
+  /**
+   * Start accepting objects to {@link #watch}. Does nothing if already started.
+   */
+  public static void start() {
+    sStarted = true;
+  }
+
+  /**
+   * Stop watching. Objects already being watched are forgotten; the leaks
+   * found so far are kept.
+   */
+  public static void stop() {
+    sStarted = false;
+    sWatches.clear();
+  }
+
+  public static boolean isStarted() {
+    return sStarted;
+  }
+
+  /**
+   * Expect <code>host</code> to be garbage collected within
+   * {@link #DEADLINE_MILLIS}, e.g. because it has just been destroyed. Ignored
+   * unless started.
+   */
+  public static void watch(Object host, String reason) {
+    if (!sStarted) {
+      return;
+    }
+    final Watch watch = new Watch(host, describe(host) + " (" + reason + ")", sQueue);
+    sWatches.add(watch);
+    sHandler.postDelayed(new Runnable() {
+      @Override
+      public void run() {
+        check(watch);
+      }
+    }, DEADLINE_MILLIS);
+  }
+
+  /**
+   * Returns how many watched objects outlived their deadline so far.
+   */
+  public static int getLeakCount() {
+    return sLeakCount;
+  }
+
+  /**
+   * Prints the number of objects still being watched and the most recent leak
+   * reports.
+   */
+  public static void dump(String prefix, PrintWriter writer) {
+    removeCollected();
+    writer.print(prefix);
+    writer.print("Leak watchdog: ");
+    writer.print(sStarted ? "started" : "stopped");
+    writer.print(" watching=");
+    writer.print(sWatches.size());
+    writer.print(" leaked=");
+    writer.println(sLeakCount);
+    for (String report : sReports) {
+      writer.print(prefix);
+      writer.print("  ");
+      writer.println(report);
+    }
+  }
+
+  private static void check(final Watch watch) {
+    removeCollected();
+    if (!sWatches.contains(watch)) {
+      return;
+    }
+    // Give the collector one chance to catch up before crying wolf, off the
+    // main thread so as not to cause the jank we are trying to measure.
+    sCollector.execute(new Runnable() {
+      @Override
+      public void run() {
+        Runtime.getRuntime().gc();
+        System.runFinalization();
+        sHandler.post(new Runnable() {
+          @Override
+          public void run() {
+            report(watch);
+          }
+        });
+      }
+    });
+  }
+
+  private static void report(Watch watch) {
+    removeCollected();
+    if (!sWatches.remove(watch)) {
+      return;
+    }
+    Object leaked = watch.get();
+    if (leaked == null) {
+      return;
+    }
+    sLeakCount++;
+    String report = watch.mDescription + " still reachable after "
+        + (SystemClock.uptimeMillis() - watch.mWatchedAt) + "ms";
+    Log.w(TAG, report);
+    if (sReports.size() == MAX_REPORTS) {
+      sReports.remove(0);
+    }
+    sReports.add(report);
+  }
+
+  private static void removeCollected() {
+    Object ref;
+    while ((ref = sQueue.poll()) != null) {
+      sWatches.remove(ref);
+    }
+  }
+
+  private static String describe(Object host) {
+    return host.getClass().getName() + "@" + Integer.toHexString(System.identityHashCode(host));
+  }
+
+}
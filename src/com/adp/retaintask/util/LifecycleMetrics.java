@@ -0,0 +1,96 @@
+package com.adp.retaintask.util;
+
+import java.io.PrintWriter;
+
+/**
+ * LifecycleMetrics timestamps every lifecycle transition with a monotonic clock
+ * and turns them into two histograms that describe how long a configuration
+ * change takes to restore the screen:
+ * <ul>
+ * <li>{@link #getRestoreLatency()}: from the old Activity's
+ * <code>onPause()</code> to the new Activity's <code>onResume()</code>.</li>
+ * <li>{@link #getFirstProgressLatency()}: from a TaskFragment's
+ * <code>onAttach()</code> to the first progress callback delivered to its new
+ * host.</li>
+ * </ul>
+ * Every {@link #mark} is also recorded in the {@link Trace}. All methods must
+ * be called on the main thread.
+ */
+public final class LifecycleMetrics {
+  private static final long NANOS_PER_MILLI = 1000000;
+
+  private static final long[][] sTimestamps = new long[Trace.SOURCE_COUNT][Trace.EVENT_COUNT];
+  private static final long[] sPendingRestore = new long[Trace.SOURCE_COUNT];
+  private static long sPendingFirstProgress;
+
+  private static final LatencyHistogram sRestoreLatency = new LatencyHistogram("ms");
+  private static final LatencyHistogram sFirstProgressLatency = new LatencyHistogram("ms");
+
+  private LifecycleMetrics() {}
+
+  /**
+   * Record a lifecycle transition. <code>source</code> and <code>event</code>
+   * are the {@link Trace} constants.
+   */
+  public static void mark(int source, int event) {
+    if (Trace.ENABLED) Trace.event(source, event);
+    long now = System.nanoTime();
+    sTimestamps[source][event] = now;
+    if (event == Trace.ON_RESUME && sPendingRestore[source] != 0) {
+      sRestoreLatency.record((now - sPendingRestore[source]) / NANOS_PER_MILLI);
+      sPendingRestore[source] = 0;
+    }
+  }
+
+  /**
+   * Record that an Activity was destroyed. If it isn't finishing, it is being
+   * recreated, and the time until the new instance resumes counts as restore
+   * latency.
+   */
+  public static void markDestroyed(int source, boolean finishing) {
+    mark(source, Trace.ON_DESTROY);
+    if (!finishing) {
+      sPendingRestore[source] = sTimestamps[source][Trace.ON_PAUSE];
+    }
+  }
+
+  /**
+   * Start timing until the next call to {@link #markProgressDelivered()}. Called
+   * when a TaskFragment with running tasks attaches to a new host.
+   */
+  public static void startFirstProgressTimer() {
+    sPendingFirstProgress = System.nanoTime();
+  }
+
+  /**
+   * Record that a progress callback was delivered to a host.
+   */
+  public static void markProgressDelivered() {
+    if (sPendingFirstProgress != 0) {
+      sFirstProgressLatency.record((System.nanoTime() - sPendingFirstProgress) / NANOS_PER_MILLI);
+      sPendingFirstProgress = 0;
+    }
+  }
+
+  /**
+   * Returns the {@link System#nanoTime()} of the last time <code>source</code>
+   * went through <code>event</code>, or 0 if it never has.
+   */
+  public static long getTimestamp(int source, int event) {
+    return sTimestamps[source][event];
+  }
+
+  public static LatencyHistogram getRestoreLatency() {
+    return sRestoreLatency;
+  }
+
+  public static LatencyHistogram getFirstProgressLatency() {
+    return sFirstProgressLatency;
+  }
+
+  public static void dump(String prefix, PrintWriter writer) {
+    sRestoreLatency.dump(prefix, "Config change restore (onPause to onResume)", writer);
+    sFirstProgressLatency.dump(prefix, "Attach to first progress", writer);
+  }
+
+}
@@ -0,0 +1,152 @@
+package com.adp.retaintask.util;
+
+import java.io.PrintWriter;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Trace records fixed-size binary events (timestamp, source, event, argument)
+ * into a ring buffer that is allocated once, up front. Recording an event does
+ * no string building, no I/O and no allocation, so trace points can stay in
+ * hot loops and in production builds. The buffer is only decoded into text
+ * when it is dumped, e.g. through
+ * <code>adb shell dumpsys activity com.adp.retaintask</code>.
+ * <p>
+ * Guard every trace point with <code>if (Trace.ENABLED)</code>; setting
+ * {@link #ENABLED} to false lets the compiler strip them out entirely.
+ * <p>
+ * Writers never block each other. If the buffer wraps while it is being
+ * dumped, a few of the oldest events in the dump may be torn.
+ */
+public final class Trace {
+
+  /** Set this to false to compile out every trace point. */
+  public static final boolean ENABLED = true;
+
+  /** Number of events kept. Must be a power of two. */
+  private static final int CAPACITY = 1024;
+  private static final int EVENT_SIZE = 3;
+
+  /***** SOURCES *****/
+
+  public static final int MAIN_ACTIVITY = 1;
+  public static final int TASK_FRAGMENT = 2;
+  public static final int EXTRA_MAIN_ACTIVITY = 3;
+  public static final int EXTRA_TASK_FRAGMENT = 4;
+  public static final int UI_FRAGMENT = 5;
+
+  /** One more than the largest source ID. */
+  public static final int SOURCE_COUNT = 6;
+
+  private static final String[] SOURCE_NAMES = {
+      null, "MainActivity", "TaskFragment", "extra.MainActivity", "extra.TaskFragment",
+      "UIFragment" };
+
+  /***** EVENTS *****/
+
+  public static final int ON_ATTACH = 1;
+  public static final int ON_CREATE = 2;
+  public static final int ON_CREATE_VIEW = 3;
+  public static final int ON_ACTIVITY_CREATED = 4;
+  public static final int ON_START = 5;
+  public static final int ON_RESUME = 6;
+  public static final int ON_PAUSE = 7;
+  public static final int ON_SAVE_INSTANCE_STATE = 8;
+  public static final int ON_STOP = 9;
+  public static final int ON_DESTROY = 10;
+  public static final int ON_DETACH = 11;
+  public static final int ON_PRE_EXECUTE = 12;
+  public static final int PUBLISH_PROGRESS = 13;
+  public static final int ON_PROGRESS_UPDATE = 14;
+  public static final int ON_CANCELLED = 15;
+  public static final int ON_POST_EXECUTE = 16;
+  public static final int ON_TRANSFER_PROGRESS = 17;
+  public static final int ON_PARTIAL_RESULTS = 18;
+  public static final int ON_TIMED_OUT = 19;
+  public static final int ON_FAILED = 20;
+
+  /** One more than the largest event ID. */
+  public static final int EVENT_COUNT = 21;
+
+  private static final String[] EVENT_NAMES = {
+      null, "onAttach", "onCreate", "onCreateView", "onActivityCreated", "onStart", "onResume",
+      "onPause", "onSaveInstanceState", "onStop", "onDestroy", "onDetach", "onPreExecute",
+      "publishProgress", "onProgressUpdate", "onCancelled", "onPostExecute",
+      "onTransferProgress", "onPartialResults", "onTimedOut", "onFailed" };
+
+  private static final long[] sEvents = new long[CAPACITY * EVENT_SIZE];
+  private static final AtomicInteger sNext = new AtomicInteger();
+
+  private Trace() {}
+
+  /**
+   * Record an event with no argument.
+   */
+  public static void event(int source, int event) {
+    event(source, event, 0);
+  }
+
+  /**
+   * Record an event. Safe to call from any thread.
+   */
+  public static void event(int source, int event, long arg) {
+    int offset = (sNext.getAndIncrement() & (CAPACITY - 1)) * EVENT_SIZE;
+    sEvents[offset] = System.nanoTime();
+    sEvents[offset + 1] = ((long) source << 32) | event;
+    sEvents[offset + 2] = arg;
+  }
+
+  /**
+   * Discard every recorded event.
+   */
+  public static void clear() {
+    sNext.set(0);
+    Arrays.fill(sEvents, 0);
+  }
+
+  /**
+   * Print the recorded events, oldest first. Timestamps are relative to the
+   * oldest event shown.
+   */
+  public static void dump(String prefix, PrintWriter writer) {
+    int next = sNext.get();
+    int count = Math.min(next, CAPACITY);
+    writer.print(prefix);
+    writer.print("Trace: ");
+    writer.print(count);
+    writer.print(" of ");
+    writer.print(next);
+    writer.println(" events");
+    long start = 0;
+    for (int i = next - count; i < next; i++) {
+      int offset = (i & (CAPACITY - 1)) * EVENT_SIZE;
+      long time = sEvents[offset];
+      long id = sEvents[offset + 1];
+      if (i == next - count) {
+        start = time;
+      }
+      writer.print(prefix);
+      writer.print("  +");
+      writer.print((time - start) / 1000);
+      writer.print("us ");
+      writer.print(sourceName((int) (id >>> 32)));
+      writer.print('.');
+      writer.print(eventName((int) id));
+      writer.print(' ');
+      writer.println(sEvents[offset + 2]);
+    }
+  }
+
+  public static String sourceName(int source) {
+    return name(SOURCE_NAMES, source);
+  }
+
+  public static String eventName(int event) {
+    return name(EVENT_NAMES, event);
+  }
+
+  private static String name(String[] names, int index) {
+    return index > 0 && index < names.length ? names[index] : "#" + index;
+  }
+
+}